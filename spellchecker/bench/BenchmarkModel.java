@@ -0,0 +1,27 @@
+
+import java.io.IOException;
+
+/**
+ * Model shared by the benchmarks of one fork, loaded once from the working
+ * directory like SpellChecker does.
+ */
+class BenchmarkModel {
+
+    private static SpellCorrector corrector;
+
+    private BenchmarkModel() {
+    }
+
+    /**
+     * Returns a corrector without caches, so repeated calls measure the real
+     * work instead of cache hits.
+     */
+    static synchronized SpellCorrector uncachedCorrector() throws IOException {
+        if (corrector == null) {
+            SpellCorrector loaded = SpellChecker.loadCorrector();
+            corrector = new SpellCorrector(loaded.getCorpusReader(), loaded.getConfusionMatrixReader(),
+                    0, BoundedCache.Eviction.LEAST_RECENTLY_USED);
+        }
+        return corrector;
+    }
+}
@@ -0,0 +1,55 @@
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Candidate generation for single words, with the similar words cache
+ * disabled so every call does the full lookup. Each generator gets its own
+ * corrector, so the shared one keeps the default. At distance 2
+ * DELETE_INDEX searches the automaton as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CandidateBenchmark {
+
+    @Param({"a", "us", "moce", "conitions", "consideration"})
+    String word;
+
+    @Param({"DELETE_INDEX", "LENGTH_SCAN", "AUTOMATON"})
+    SpellCorrector.CandidateGeneration generation;
+
+    @Param({"1", "2"})
+    int maxDistance;
+
+    SpellCorrector sc;
+
+    @Setup
+    public void setup() throws IOException {
+        SpellCorrector model = BenchmarkModel.uncachedCorrector();
+        sc = new SpellCorrector(model.getCorpusReader(), model.getConfusionMatrixReader(),
+                0, BoundedCache.Eviction.LEAST_RECENTLY_USED);
+        sc.setCandidateGeneration(generation);
+        sc.setMaxDistance(maxDistance);
+    }
+
+    @Benchmark
+    public Set<String> getSimilarWords() {
+        return sc.getSimilarWords(word);
+    }
+}
@@ -0,0 +1,75 @@
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Damerau-Levenshtein kernels on word pairs of typical lengths: one pair at
+ * distance 1 and one pair that is far apart, which the bounded check can
+ * reject early.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceBenchmark {
+
+    @Param({"3", "8", "14"})
+    int length;
+
+    String word;
+    String similarWord;
+    String otherWord;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + (i * 7) % 26));
+        }
+        word = sb.toString();
+        similarWord = word.substring(0, length / 2) + "x" + word.substring(length / 2 + 1);
+        otherWord = sb.reverse().toString();
+    }
+
+    @Benchmark
+    public int distanceSimilar() {
+        return DamerauLevenshtein.distance(word, similarWord);
+    }
+
+    @Benchmark
+    public int distanceOther() {
+        return DamerauLevenshtein.distance(word, otherWord);
+    }
+
+    @Benchmark
+    public boolean withinDistanceSimilar() {
+        return DamerauLevenshtein.withinDistance(word, similarWord, 1);
+    }
+
+    @Benchmark
+    public boolean withinDistanceOther() {
+        return DamerauLevenshtein.withinDistance(word, otherWord, 1);
+    }
+
+    @Benchmark
+    public Edit[] alignSimilar() {
+        return DamerauLevenshtein.align(word, similarWord, 1);
+    }
+
+    @Benchmark
+    public Edit[] alignOther() {
+        return DamerauLevenshtein.align(word, otherWord, 1);
+    }
+}
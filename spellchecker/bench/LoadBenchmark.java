@@ -0,0 +1,52 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Model load time, from the text files and from a compiled image. Each
+ * measurement is a single load in a fresh fork.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    File image;
+
+    @Setup
+    public void setup() throws IOException {
+        image = File.createTempFile("model", ".bin");
+        image.deleteOnExit();
+        ModelImage.write(image, new CorpusReader(), new ConfusionMatrixReader());
+    }
+
+    @Benchmark
+    public CorpusReader corpusReaderText() throws IOException {
+        return new CorpusReader();
+    }
+
+    @Benchmark
+    public ConfusionMatrixReader confusionMatrixReaderText() {
+        return new ConfusionMatrixReader();
+    }
+
+    @Benchmark
+    public SpellCorrector modelImage() throws IOException {
+        ModelImage model = ModelImage.read(image);
+        return new SpellCorrector(new CorpusReader(model), new ConfusionMatrixReader(model));
+    }
+}
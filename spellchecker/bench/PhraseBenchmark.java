@@ -0,0 +1,56 @@
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Phrase correction of a short and a long phrase: the decoder against the
+ * exhaustive scoring of every possible phrase in the lattice, and the ten
+ * best phrases against the best one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhraseBenchmark {
+
+    @Param({
+        "at the hme locations there were traces of water",
+        "a repsonse may be any measurable biological parameter that is correlated witth the toxicant"})
+    String phrase;
+
+    SpellCorrector sc;
+
+    @Setup
+    public void setup() throws IOException {
+        sc = BenchmarkModel.uncachedCorrector();
+    }
+
+    @Benchmark
+    public String correctPhrase() {
+        return sc.correctPhrase(phrase);
+    }
+
+    @Benchmark
+    public List<Suggestion> suggestTenPhrases() {
+        return sc.suggestPhrases(phrase, 10);
+    }
+
+    @Benchmark
+    public String correctPhraseExhaustive() {
+        return sc.correctPhraseExhaustive(phrase);
+    }
+}
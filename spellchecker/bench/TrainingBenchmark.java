@@ -0,0 +1,40 @@
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end correctPhrase over all training sentences of SpellChecker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrainingBenchmark {
+
+    SpellCorrector sc;
+
+    @Setup
+    public void setup() throws IOException {
+        sc = BenchmarkModel.uncachedCorrector();
+    }
+
+    @Benchmark
+    public void trainingSentences(Blackhole blackhole) {
+        for (String sentence : SpellChecker.TRAINING_SENTENCES) {
+            blackhole.consume(sc.correctPhrase(sentence));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import jdk.jfr.FlightRecorder;
+
+/**
+ * FlightEvents that records PhraseCorrectionEvent and ModelLoadEvent. Loaded
+ * by name, so only this directory needs jdk.jfr to build.
+ */
+public class JfrFlightEvents extends FlightEvents {
+
+    @Override
+    public PhraseCorrection beginPhraseCorrection() {
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        PhraseCorrectionEvent event = new PhraseCorrectionEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public ModelLoad beginModelLoad() {
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        ModelLoadEvent event = new ModelLoadEvent();
+        event.begin();
+        return event;
+    }
+}
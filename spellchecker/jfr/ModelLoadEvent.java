@@ -0,0 +1,22 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for loading the model in SpellChecker.loadCorrector.
+ */
+@Name("spellchecker.ModelLoad")
+@Label("Model Load")
+@Category("Spell Checker")
+public class ModelLoadEvent extends jdk.jfr.Event implements FlightEvents.ModelLoad {
+
+    @Label("Source")
+    String source; // "image" or "text"
+
+    @Override
+    public void commit(String source) {
+        this.source = source;
+        commit();
+    }
+}
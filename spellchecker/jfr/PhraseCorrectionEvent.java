@@ -0,0 +1,51 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one call of SpellCorrector.correctPhrase. Its duration is
+ * the whole call.
+ */
+@Name("spellchecker.PhraseCorrection")
+@Label("Phrase Correction")
+@Category("Spell Checker")
+public class PhraseCorrectionEvent extends jdk.jfr.Event implements FlightEvents.PhraseCorrection {
+
+    @Label("Words")
+    int words;
+
+    @Label("Positions Searched")
+    @Description("Words whose candidates were searched; all of them without the fast path")
+    int positionsSearched;
+
+    @Label("Candidates")
+    @Description("Candidates of all words together")
+    int candidates;
+
+    @Label("Transitions Scored")
+    @Description("Word pairs scored by the decoder")
+    long transitionsScored;
+
+    @Label("Candidate Generation")
+    @Timespan(Timespan.NANOSECONDS)
+    long candidateGeneration;
+
+    @Label("Decoding")
+    @Timespan(Timespan.NANOSECONDS)
+    long decoding;
+
+    @Override
+    public void commit(int words, int positionsSearched, int candidates, long transitionsScored,
+            long candidateGeneration, long decoding) {
+        this.words = words;
+        this.positionsSearched = positionsSearched;
+        this.candidates = candidates;
+        this.transitionsScored = transitionsScored;
+        this.candidateGeneration = candidateGeneration;
+        this.decoding = decoding;
+        commit();
+    }
+}
@@ -0,0 +1,37 @@
+
+/**
+ * Add-K smoothing: every pair counts k more than it was seen, so
+ * P(word | context) = (count + k) / (count(context) + k * V).
+ */
+public class AddKSmoothing implements Smoothing {
+
+    final private double k;
+
+    public AddKSmoothing(double k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("K must be positive.");
+        }
+        this.k = k;
+    }
+
+    @Override
+    public Estimator prepare(BigramStatistics statistics) {
+        double V = statistics.getVocabularySize();
+        return new Estimator() {
+            @Override
+            public double logSeen(int contextId, int wordId, int count) {
+                return Math.log((count + k) / (statistics.getUnigramCount(contextId) + k * V));
+            }
+
+            @Override
+            public double logUnseenContext(int contextId) {
+                return Math.log(k / (statistics.getUnigramCount(contextId) + k * V));
+            }
+
+            @Override
+            public double logUnseenWord(int wordId) {
+                return 0;
+            }
+        };
+    }
+}
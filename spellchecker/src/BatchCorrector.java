@@ -0,0 +1,89 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Corrects a stream of phrases, one per line, on a pool of worker threads
+ * that share one SpellCorrector. Answers are written in input order. At most
+ * maxInFlight lines are read ahead of the last written answer, so memory use
+ * does not depend on the input size.
+ */
+public class BatchCorrector {
+
+    final private SpellCorrector sc;
+    final private int threads;
+    final private int maxInFlight;
+
+    /**
+     * @param sc corrector shared by all workers
+     * @param threads number of worker threads
+     * @param maxInFlight maximum number of lines read but not yet written
+     */
+    public BatchCorrector(SpellCorrector sc, int threads, int maxInFlight) {
+        if (threads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Threads and lines in flight must be positive.");
+        }
+        this.sc = sc;
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Reads phrases from in until the end of the stream and writes an answer
+     * line for each of them to out.
+     */
+    public void run(BufferedReader in, PrintStream out) throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> inFlight = new ArrayDeque<>();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String phrase = line;
+                inFlight.add(workers.submit(() -> correct(phrase)));
+
+                // Wait for the oldest line before reading further ahead
+                if (inFlight.size() >= maxInFlight) {
+                    out.println("Answer: " + await(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                out.println("Answer: " + await(inFlight.poll()));
+            }
+            out.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the correction of phrase, or phrase itself if it is empty or
+     * only whitespace, or cannot be corrected.
+     */
+    private String correct(String phrase) {
+        if (phrase.trim().isEmpty()) {
+            return phrase;
+        }
+        try {
+            return sc.correctPhrase(phrase);
+        } catch (RuntimeException ex) {
+            Logger.getLogger(BatchCorrector.class.getName()).log(Level.WARNING, "Cannot correct <" + phrase + ">", ex);
+            return phrase;
+        }
+    }
+
+    private static String await(Future<String> answer) throws InterruptedException {
+        try {
+            return answer.get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause()); // correct handles all exceptions
+        }
+    }
+}
@@ -0,0 +1,286 @@
+
+/**
+ * Smoothed log probabilities of word pairs, computed once from the counts of
+ * a CorpusReader. Seen pairs have their log probabilities stored in arrays
+ * parallel to the slots of the bigram count table, so a lookup is one probe
+ * of that table. Unseen pairs add a stored part for each word. Which
+ * smoothing method made the numbers therefore does not change the cost of a
+ * lookup.
+ *
+ * A model with a delta, see withDelta, shares these tables and computes
+ * the pairs of the words whose counts changed on the fly.
+ *
+ * The tables of the default smoothing are stored in the model image, see
+ * getTables, so loading the image does not compute them again.
+ */
+public class BigramModel {
+
+    final private Smoothing smoothing;
+    final private LongIntHashMap bigramCounts;
+    final private double[] logGivenPrev; // per slot of bigramCounts, log P(second | first)
+    final private double[] logGivenNext; // per slot of bigramCounts, log P(first | second)
+    // Indexed by word id + 1, so an unknown word (-1) has index 0
+    final private double[] unseenPrevContext;
+    final private double[] unseenPrevWord;
+    final private double[] unseenNextContext;
+    final private double[] unseenNextWord;
+    final private CorpusReader cr;
+    private volatile BigramStatistics[] statistics; // of the loaded counts, given previous and next word; built on first use
+    // Indexed by word id + 1, the highest logProbabilityPair of the word as first or as second word
+    final private double[] bestAsFirst;
+    final private double[] bestAsSecond;
+
+    // Counts added after loading, with the estimators including them; null without a delta
+    final private CorpusDelta delta;
+    final private Smoothing.Estimator changedGivenPrev;
+    final private Smoothing.Estimator changedGivenNext;
+
+    /**
+     * Creates the model of the counts cr loaded
+     */
+    public BigramModel(CorpusReader cr, Smoothing smoothing) {
+        this.smoothing = smoothing;
+        this.cr = cr;
+        this.bigramCounts = cr.getBigramCounts();
+        this.delta = null;
+        this.changedGivenPrev = null;
+        this.changedGivenNext = null;
+        BigramStatistics[] statistics = getStatistics();
+        Smoothing.Estimator givenPrev = smoothing.prepare(statistics[0]);
+        Smoothing.Estimator givenNext = smoothing.prepare(statistics[1]);
+
+        long[] keys = bigramCounts.getKeys();
+        int[] counts = bigramCounts.getValues();
+        logGivenPrev = new double[keys.length];
+        logGivenNext = new double[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] < 0 || counts[i] <= 0) {
+                continue;
+            }
+            int first = (int) (keys[i] >>> 32);
+            int second = (int) keys[i];
+            logGivenPrev[i] = givenPrev.logSeen(first, second, counts[i]);
+            logGivenNext[i] = givenNext.logSeen(second, first, counts[i]);
+        }
+
+        int words = cr.getWordCount();
+        unseenPrevContext = new double[words + 1];
+        unseenPrevWord = new double[words + 1];
+        unseenNextContext = new double[words + 1];
+        unseenNextWord = new double[words + 1];
+        for (int id = -1; id < words; id++) {
+            unseenPrevContext[id + 1] = givenPrev.logUnseenContext(id);
+            unseenPrevWord[id + 1] = givenPrev.logUnseenWord(id);
+            unseenNextContext[id + 1] = givenNext.logUnseenContext(id);
+            unseenNextWord[id + 1] = givenNext.logUnseenWord(id);
+        }
+
+        // An unseen pair scores a part for the first word plus a part for
+        // the second, so its best score with any partner is that of the best part
+        double bestFirstPart = Double.NEGATIVE_INFINITY;
+        double bestSecondPart = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i <= words; i++) {
+            bestFirstPart = Math.max(bestFirstPart, unseenPrevContext[i] + unseenNextWord[i]);
+            bestSecondPart = Math.max(bestSecondPart, unseenPrevWord[i] + unseenNextContext[i]);
+        }
+        bestAsFirst = new double[words + 1];
+        bestAsSecond = new double[words + 1];
+        for (int i = 0; i <= words; i++) {
+            bestAsFirst[i] = unseenPrevContext[i] + unseenNextWord[i] + bestSecondPart;
+            bestAsSecond[i] = bestFirstPart + unseenPrevWord[i] + unseenNextContext[i];
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] < 0 || counts[i] <= 0) {
+                continue;
+            }
+            int first = (int) (keys[i] >>> 32);
+            int second = (int) keys[i];
+            double pair = logGivenPrev[i] + logGivenNext[i];
+            bestAsFirst[first + 1] = Math.max(bestAsFirst[first + 1], pair);
+            bestAsSecond[second + 1] = Math.max(bestAsSecond[second + 1], pair);
+        }
+    }
+
+    /**
+     * Creates the model of the counts cr loaded from tables that smoothing
+     * computed before, as getTables returned them
+     */
+    BigramModel(CorpusReader cr, Smoothing smoothing, double[][] tables) {
+        this.smoothing = smoothing;
+        this.cr = cr;
+        this.bigramCounts = cr.getBigramCounts();
+        this.delta = null;
+        this.changedGivenPrev = null;
+        this.changedGivenNext = null;
+        logGivenPrev = tables[0];
+        logGivenNext = tables[1];
+        unseenPrevContext = tables[2];
+        unseenPrevWord = tables[3];
+        unseenNextContext = tables[4];
+        unseenNextWord = tables[5];
+        bestAsFirst = tables[6];
+        bestAsSecond = tables[7];
+    }
+
+    private BigramModel(BigramModel loaded, CorpusDelta delta) {
+        this.smoothing = loaded.smoothing;
+        this.cr = loaded.cr;
+        this.bigramCounts = loaded.bigramCounts;
+        this.logGivenPrev = loaded.logGivenPrev;
+        this.logGivenNext = loaded.logGivenNext;
+        this.unseenPrevContext = loaded.unseenPrevContext;
+        this.unseenPrevWord = loaded.unseenPrevWord;
+        this.unseenNextContext = loaded.unseenNextContext;
+        this.unseenNextWord = loaded.unseenNextWord;
+        this.statistics = loaded.statistics;
+        this.bestAsFirst = loaded.bestAsFirst;
+        this.bestAsSecond = loaded.bestAsSecond;
+        this.delta = delta;
+        if (delta == null) {
+            this.changedGivenPrev = null;
+            this.changedGivenNext = null;
+        } else {
+            BigramStatistics[] loadedStatistics = loaded.getStatistics();
+            this.statistics = loadedStatistics;
+            this.changedGivenPrev = smoothing.prepare(loadedStatistics[0].withDelta(delta, true));
+            this.changedGivenNext = smoothing.prepare(loadedStatistics[1].withDelta(delta, false));
+        }
+    }
+
+    /**
+     * Returns the statistics of the loaded counts, which only a model that
+     * computes its tables or includes a delta needs
+     */
+    private BigramStatistics[] getStatistics() {
+        BigramStatistics[] result = statistics;
+        if (result == null) {
+            result = BigramStatistics.of(cr);
+            statistics = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the tables of the loaded model: the seen log probabilities
+     * given the previous and given the next word, per slot of the bigram
+     * table, then the unseen parts for the previous word as context, the
+     * word, the next word as context, the word, and the best pair scores as
+     * first and as second word, per word id + 1
+     */
+    double[][] getTables() {
+        return new double[][]{logGivenPrev, logGivenNext, unseenPrevContext, unseenPrevWord,
+            unseenNextContext, unseenNextWord, bestAsFirst, bestAsSecond};
+    }
+
+    /**
+     * Returns this model with the counts of delta added to the loaded
+     * counts. Only the tables of the loaded model are shared, so a delta
+     * replaces any earlier one.
+     */
+    BigramModel withDelta(CorpusDelta delta) {
+        return new BigramModel(this, delta.isEmpty() ? null : delta);
+    }
+
+    public Smoothing getSmoothing() {
+        return smoothing;
+    }
+
+    private boolean isChanged(int firstId, int secondId) {
+        return delta != null && (delta.isChanged(firstId) || delta.isChanged(secondId));
+    }
+
+    /**
+     * Returns an upper bound of logProbabilityPair(wordId, any word) in the
+     * loaded model. Words whose counts changed since get 0, the bound of any
+     * log probability; pairs of unchanged words with changed words may
+     * exceed the loaded bound.
+     */
+    public double bestLogProbabilityAsFirst(int wordId) {
+        if (wordId >= bestAsFirst.length - 1 || (delta != null && delta.isChanged(wordId))) {
+            return 0;
+        }
+        return bestAsFirst[wordId + 1];
+    }
+
+    /**
+     * Returns an upper bound of logProbabilityPair(any word, wordId), see
+     * bestLogProbabilityAsFirst
+     */
+    public double bestLogProbabilityAsSecond(int wordId) {
+        if (wordId >= bestAsSecond.length - 1 || (delta != null && delta.isChanged(wordId))) {
+            return 0;
+        }
+        return bestAsSecond[wordId + 1];
+    }
+
+    /**
+     * Returns the log probability of word given context from the current
+     * counts, for pairs with a changed word
+     */
+    private double estimate(Smoothing.Estimator estimator, int contextId, int wordId, int firstId, int secondId) {
+        int count = 0;
+        if (firstId >= 0 && secondId >= 0) {
+            long key = LongIntHashMap.pairKey(firstId, secondId);
+            count = bigramCounts.get(key, 0) + delta.getBigramCount(firstId, secondId);
+        }
+        return count > 0 ? estimator.logSeen(contextId, wordId, count)
+                : estimator.logUnseenContext(contextId) + estimator.logUnseenWord(wordId);
+    }
+
+    /**
+     * Returns the slot of the pair in the bigram table, or -1 if the pair
+     * was never seen
+     */
+    private int seenSlot(int firstId, int secondId) {
+        if (firstId < 0 || secondId < 0) {
+            return -1;
+        }
+        int slot = bigramCounts.indexOf(LongIntHashMap.pairKey(firstId, secondId));
+        return slot >= 0 && bigramCounts.getValues()[slot] > 0 ? slot : -1;
+    }
+
+    /**
+     * Returns the log probability of word given the previous word
+     */
+    public double logProbabilityGivenPrev(int wordId, int prevWordId) {
+        if (isChanged(prevWordId, wordId)) {
+            return estimate(changedGivenPrev, prevWordId, wordId, prevWordId, wordId);
+        }
+        int slot = seenSlot(prevWordId, wordId);
+        if (slot >= 0) {
+            return logGivenPrev[slot];
+        }
+        return unseenPrevContext[prevWordId + 1] + unseenPrevWord[wordId + 1];
+    }
+
+    /**
+     * Returns the log probability of word given the next word
+     */
+    public double logProbabilityGivenNext(int wordId, int nextWordId) {
+        if (isChanged(wordId, nextWordId)) {
+            return estimate(changedGivenNext, nextWordId, wordId, wordId, nextWordId);
+        }
+        int slot = seenSlot(wordId, nextWordId);
+        if (slot >= 0) {
+            return logGivenNext[slot];
+        }
+        return unseenNextContext[nextWordId + 1] + unseenNextWord[wordId + 1];
+    }
+
+    /**
+     * Returns the log probability of the second word given the first plus
+     * that of the first word given the second, with a single table probe
+     */
+    public double logProbabilityPair(int firstId, int secondId) {
+        if (isChanged(firstId, secondId)) {
+            return estimate(changedGivenPrev, firstId, secondId, firstId, secondId)
+                    + estimate(changedGivenNext, secondId, firstId, firstId, secondId);
+        }
+        int slot = seenSlot(firstId, secondId);
+        if (slot >= 0) {
+            return logGivenPrev[slot] + logGivenNext[slot];
+        }
+        return (unseenPrevContext[firstId + 1] + unseenPrevWord[secondId + 1])
+                + (unseenNextContext[secondId + 1] + unseenNextWord[firstId + 1]);
+    }
+}
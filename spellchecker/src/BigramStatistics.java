@@ -0,0 +1,175 @@
+
+/**
+ * Counts derived from the bigram counts that the smoothing methods need,
+ * gathered in one pass over the bigram table. The statistics are seen from
+ * one direction: the context is the previous word when estimating a word
+ * given the previous word, and the next word when estimating a word given
+ * the next word. Word ids index all arrays; an id of -1 (an unknown word)
+ * has all counts 0.
+ *
+ * Statistics with a delta add the counts of words and pairs added after
+ * loading. The global statistics, such as the vocabulary size and counts of
+ * counts, stay those of the loaded model.
+ */
+public class BigramStatistics {
+
+    final static int MAX_COUNT_OF_COUNTS = 16; // counts of counts are kept for counts below this
+
+    final private int vocabularySize;
+    final private int[] unigramCounts;
+    final private long[] contextTotals; // sum of the bigram counts with each context
+    final private int[] contextTypes; // distinct words seen with each context
+    final private int[] wordTypes; // distinct contexts seen with each word
+    final private long[] countOfCounts; // countOfCounts[r]: number of bigrams seen r times
+    final private int bigramTypes;
+    final private long bigramTotal;
+
+    // Counts added after loading, null without a delta
+    final private CorpusDelta delta;
+    final private boolean forward; // whether the context is the previous word
+
+    private BigramStatistics(int vocabularySize, int[] unigramCounts, long[] contextTotals, int[] contextTypes,
+            int[] wordTypes, long[] countOfCounts, int bigramTypes, long bigramTotal) {
+        this(vocabularySize, unigramCounts, contextTotals, contextTypes, wordTypes, countOfCounts, bigramTypes,
+                bigramTotal, null, true);
+    }
+
+    private BigramStatistics(int vocabularySize, int[] unigramCounts, long[] contextTotals, int[] contextTypes,
+            int[] wordTypes, long[] countOfCounts, int bigramTypes, long bigramTotal, CorpusDelta delta,
+            boolean forward) {
+        this.vocabularySize = vocabularySize;
+        this.unigramCounts = unigramCounts;
+        this.contextTotals = contextTotals;
+        this.contextTypes = contextTypes;
+        this.wordTypes = wordTypes;
+        this.countOfCounts = countOfCounts;
+        this.bigramTypes = bigramTypes;
+        this.bigramTotal = bigramTotal;
+        this.delta = delta;
+        this.forward = forward;
+    }
+
+    /**
+     * Returns these statistics with the counts of delta added. forward
+     * tells whether these have the previous word as context.
+     */
+    BigramStatistics withDelta(CorpusDelta delta, boolean forward) {
+        return new BigramStatistics(vocabularySize, unigramCounts, contextTotals, contextTypes, wordTypes,
+                countOfCounts, bigramTypes, bigramTotal, delta, forward);
+    }
+
+    private static int loaded(int[] values, int id) {
+        return id < values.length ? values[id] : 0;
+    }
+
+    private int addedUnigramCount(int id) {
+        return delta == null ? 0 : delta.getUnigramCount(id);
+    }
+
+    private int addedContextTotal(int id) {
+        return delta == null ? 0 : forward ? delta.getPrevTotal(id) : delta.getNextTotal(id);
+    }
+
+    private int addedContextTypes(int id) {
+        return delta == null ? 0 : forward ? delta.getFollowers(id) : delta.getPredecessors(id);
+    }
+
+    private int addedWordTypes(int id) {
+        return delta == null ? 0 : forward ? delta.getPredecessors(id) : delta.getFollowers(id);
+    }
+
+    /**
+     * Returns the statistics of cr with the previous word as context and,
+     * as its second element, those with the next word as context.
+     */
+    static BigramStatistics[] of(CorpusReader cr) {
+        int words = cr.getWordCount();
+        int[] unigramCounts = cr.getUnigramCounts();
+        long[] prevTotals = new long[words];
+        long[] nextTotals = new long[words];
+        int[] followers = new int[words];
+        int[] predecessors = new int[words];
+        long[] countOfCounts = new long[MAX_COUNT_OF_COUNTS];
+        long total = 0;
+
+        LongIntHashMap bigrams = cr.getBigramCounts();
+        long[] keys = bigrams.getKeys();
+        int[] counts = bigrams.getValues();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] < 0) {
+                continue;
+            }
+            int prev = (int) (keys[i] >>> 32);
+            int next = (int) keys[i];
+            int count = counts[i];
+            prevTotals[prev] += count;
+            nextTotals[next] += count;
+            followers[prev]++;
+            predecessors[next]++;
+            if (count < MAX_COUNT_OF_COUNTS) {
+                countOfCounts[count]++;
+            }
+            total += count;
+        }
+
+        int vocabularySize = cr.getLoadedVocabulary().size();
+        int types = bigrams.size();
+        return new BigramStatistics[]{
+            new BigramStatistics(vocabularySize, unigramCounts, prevTotals, followers, predecessors,
+            countOfCounts, types, total),
+            new BigramStatistics(vocabularySize, unigramCounts, nextTotals, predecessors, followers,
+            countOfCounts, types, total)};
+    }
+
+    public int getVocabularySize() {
+        return vocabularySize;
+    }
+
+    /**
+     * Returns the unigram count of word
+     */
+    public int getUnigramCount(int wordId) {
+        return wordId < 0 ? 0 : loaded(unigramCounts, wordId) + addedUnigramCount(wordId);
+    }
+
+    /**
+     * Returns the sum of the counts of all bigrams with the given context
+     */
+    public long getContextTotal(int contextId) {
+        if (contextId < 0) {
+            return 0;
+        }
+        long loaded = contextId < contextTotals.length ? contextTotals[contextId] : 0;
+        return loaded + addedContextTotal(contextId);
+    }
+
+    /**
+     * Returns the number of distinct words seen with the given context
+     */
+    public int getContextTypes(int contextId) {
+        return contextId < 0 ? 0 : loaded(contextTypes, contextId) + addedContextTypes(contextId);
+    }
+
+    /**
+     * Returns the number of distinct contexts the word was seen with
+     */
+    public int getWordTypes(int wordId) {
+        return wordId < 0 ? 0 : loaded(wordTypes, wordId) + addedWordTypes(wordId);
+    }
+
+    /**
+     * Returns the number of distinct bigrams seen exactly r times, for r
+     * below MAX_COUNT_OF_COUNTS
+     */
+    public long getCountOfCount(int r) {
+        return countOfCounts[r];
+    }
+
+    public int getBigramTypes() {
+        return bigramTypes;
+    }
+
+    public long getBigramTotal() {
+        return bigramTotal;
+    }
+}
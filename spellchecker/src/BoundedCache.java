@@ -0,0 +1,142 @@
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size-bounded cache that can be shared between threads. Entries are spread
+ * over independently locked segments, each a LinkedHashMap in access order
+ * (least recently used eviction) or insertion order (first in, first out
+ * eviction). Values are computed outside the locks, so a slow computation
+ * never blocks other keys.
+ *
+ * @param <K> key type
+ * @param <V> value type, values must not be null
+ */
+public class BoundedCache<K, V> {
+
+    public enum Eviction {
+        LEAST_RECENTLY_USED, FIRST_IN_FIRST_OUT
+    }
+
+    final private static int SEGMENTS = 16;
+
+    final private Segment<K, V>[] segments;
+    final private int maxSize;
+    final private LongAdder hits = new LongAdder();
+    final private LongAdder misses = new LongAdder();
+    final private LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("serial") // never serialized
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        final private int capacity;
+        final private LongAdder evictions;
+
+        Segment(int capacity, boolean accessOrder, LongAdder evictions) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param maxSize maximum number of entries, 0 disables caching
+     * @param eviction which entry to drop when the cache is full
+     */
+    public BoundedCache(int maxSize, Eviction eviction) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must be non-negative.");
+        }
+        this.maxSize = maxSize;
+        int segmentCount = Math.max(1, Math.min(SEGMENTS, maxSize));
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] created = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread the size over the segments, rounding up
+            int capacity = (maxSize + segmentCount - 1) / segmentCount;
+            created[i] = new Segment<>(capacity, eviction == Eviction.LEAST_RECENTLY_USED, evictions);
+        }
+        segments = created;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * Returns the cached value for key, computing and storing it with loader
+     * if it is not cached.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        if (maxSize == 0) {
+            misses.increment();
+            return loader.apply(key);
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        misses.increment();
+        value = loader.apply(key);
+        synchronized (segment) {
+            // Another thread may have stored the same key in the meantime
+            V previous = segment.putIfAbsent(key, value);
+            return previous == null ? value : previous;
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions();
+    }
+}
@@ -0,0 +1,162 @@
+
+import java.util.Arrays;
+
+/**
+ * Candidates of every word in a phrase together with their scores: the
+ * emission score of each candidate and the transition score of each pair of
+ * candidates at neighbouring positions. The score of a phrase is the sum of
+ * the emission scores of its words and the transition scores between them.
+ * Transition scores are computed on first use and then kept, so searches
+ * that visit a pair more than once score it only once. If the scorer uses
+ * trigrams, a word also gets a trigram score from the two words before it,
+ * which the decoders add. All scores come from one epoch of the
+ * scorer, taken when the lattice is created.
+ */
+public class CandidateLattice {
+
+    final private SpellCorrector scorer;
+    final private SpellCorrector.Epoch epoch;
+    final boolean trigrams; // whether phrases also get trigram scores
+    final String[] words;
+    final String[][] candidates;
+    final private int[][] ids;
+    final boolean[][] isCorrection;
+    final double[][] emission; // [position][candidate]
+    final private double[][][] transition; // [position][candidate before][candidate], NaN until computed
+    private long transitionsScored;
+
+    /**
+     * @param cr the corpus reader of scorer
+     * @param words words of the input phrase
+     * @param candidates candidates for each word, including the word itself
+     * if it is allowed to stay unchanged
+     */
+    public CandidateLattice(SpellCorrector scorer, CorpusReader cr, String[] words, String[][] candidates) {
+        this(scorer, scorer.currentEpoch(), words, candidates, null, null);
+    }
+
+    /**
+     * Creates the lattice of the candidates pruning keeps; all if pruning is
+     * null. candidates itself is not changed.
+     *
+     * @param cr the corpus reader of scorer
+     * @param edits per candidate the edits from it to its word, as found
+     * with the candidates; null to find them again
+     */
+    public CandidateLattice(SpellCorrector scorer, CorpusReader cr, String[] words, String[][] candidates,
+            Edit[][][] edits, CandidatePruning pruning) {
+        this(scorer, scorer.currentEpoch(), words, candidates, edits, pruning);
+    }
+
+    /**
+     * Creates the lattice scored from the given epoch of scorer, see
+     * CandidateLattice(SpellCorrector, CorpusReader, String[], String[][],
+     * Edit[][][], CandidatePruning)
+     */
+    CandidateLattice(SpellCorrector scorer, SpellCorrector.Epoch epoch, String[] words, String[][] candidates,
+            Edit[][][] edits, CandidatePruning pruning) {
+        this.scorer = scorer;
+        this.epoch = epoch;
+        this.trigrams = scorer.isUsingTrigrams();
+        this.words = words;
+        this.candidates = pruning == null ? candidates : candidates.clone();
+        BigramModel model = pruning == null ? null : epoch.corpus.getBigramModel();
+        int n = words.length;
+        ids = new int[n][];
+        isCorrection = new boolean[n][];
+        emission = new double[n][];
+        transition = new double[n][][];
+
+        for (int i = 0; i < n; i++) {
+            int count = candidates[i].length;
+            ids[i] = new int[count];
+            isCorrection[i] = new boolean[count];
+            emission[i] = new double[count];
+            for (int j = 0; j < count; j++) {
+                // Look up the word ids once, so scoring pairs needs no strings
+                ids[i][j] = epoch.corpus.getWordId(candidates[i][j]);
+                isCorrection[i][j] = !candidates[i][j].equals(words[i]);
+                emission[i][j] = scorer.emissionScore(epoch, words[i], candidates[i][j], ids[i][j],
+                        edits == null ? null : edits[i][j]);
+            }
+            if (pruning != null) {
+                int[] kept = pruning.select(words[i], candidates[i], ids[i], emission[i], model, i > 0, i + 1 < n);
+                if (kept != null) {
+                    keep(i, kept);
+                    count = kept.length;
+                }
+            }
+            if (i > 0) {
+                transition[i] = new double[this.candidates[i - 1].length][count];
+                for (double[] row : transition[i]) {
+                    Arrays.fill(row, Double.NaN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps only the given candidates at position i
+     */
+    private void keep(int i, int[] kept) {
+        String[] keptCandidates = new String[kept.length];
+        int[] keptIds = new int[kept.length];
+        boolean[] keptIsCorrection = new boolean[kept.length];
+        double[] keptEmission = new double[kept.length];
+        for (int k = 0; k < kept.length; k++) {
+            keptCandidates[k] = candidates[i][kept[k]];
+            keptIds[k] = ids[i][kept[k]];
+            keptIsCorrection[k] = isCorrection[i][kept[k]];
+            keptEmission[k] = emission[i][kept[k]];
+        }
+        candidates[i] = keptCandidates;
+        ids[i] = keptIds;
+        isCorrection[i] = keptIsCorrection;
+        emission[i] = keptEmission;
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Returns the transition score between candidate p at position i - 1 and
+     * candidate j at position i.
+     */
+    double transition(int i, int p, int j) {
+        double score = transition[i][p][j];
+        if (Double.isNaN(score)) {
+            score = scorer.transitionScore(epoch, ids[i - 1][p], ids[i][j]);
+            transition[i][p][j] = score;
+            transitionsScored++;
+        }
+        return score;
+    }
+
+    /**
+     * Returns the trigram score of candidate j at position i after candidate
+     * q at position i - 2 and candidate p at position i - 1. Every triple is
+     * scored once by the decoder, so it is not kept.
+     */
+    double trigram(int i, int q, int p, int j) {
+        return scorer.trigramScore(epoch, ids[i - 2][q], ids[i - 1][p], ids[i][j]);
+    }
+
+    /**
+     * Returns the phrase made of the given candidate at every position
+     */
+    String phrase(int[] choice) {
+        String[] result = new String[choice.length];
+        for (int i = 0; i < choice.length; i++) {
+            result[i] = candidates[i][choice[i]];
+        }
+        return String.join(" ", result);
+    }
+
+    /**
+     * Returns the number of word pairs scored so far
+     */
+    public long getTransitionsScored() {
+        return transitionsScored;
+    }
+}
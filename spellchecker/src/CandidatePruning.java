@@ -0,0 +1,82 @@
+
+import java.util.Arrays;
+
+/**
+ * Drops hopeless candidates of every word before the phrase search. A
+ * candidate is ranked by an upper bound of what it can add to a phrase: its
+ * emission score plus the best bigram score it can have with any word before
+ * and after it. Of every word at most maxCandidates candidates are kept, and
+ * none whose bound is more than maxScoreGap below the best bound of that
+ * word. The word itself is never dropped, so pruning cannot force a
+ * correction. With trigram scores the bound no longer holds strictly, but the
+ * ranking still applies. A pruning does not change once created, so it can
+ * be shared by any number of threads.
+ */
+public class CandidatePruning {
+
+    final private int maxCandidates;
+    final private double maxScoreGap;
+
+    /**
+     * @param maxCandidates candidates kept per word, besides the word itself;
+     * 0 for no limit
+     * @param maxScoreGap largest difference in log score with the best
+     * candidate of a word; Double.POSITIVE_INFINITY for no limit
+     */
+    public CandidatePruning(int maxCandidates, double maxScoreGap) {
+        if (maxCandidates < 0 || !(maxScoreGap >= 0)) {
+            throw new IllegalArgumentException("Limits must be non-negative.");
+        }
+        this.maxCandidates = maxCandidates;
+        this.maxScoreGap = maxScoreGap;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    public double getMaxScoreGap() {
+        return maxScoreGap;
+    }
+
+    /**
+     * Returns the indexes of the candidates of word that are kept, in
+     * order, or null if all are kept
+     *
+     * @param ids word ids of the candidates
+     * @param emission emission scores of the candidates
+     * @param hasPrev whether a word comes before word
+     * @param hasNext whether a word comes after word
+     */
+    int[] select(String word, String[] candidates, int[] ids, double[] emission, BigramModel model,
+            boolean hasPrev, boolean hasNext) {
+        if (candidates.length <= 1) {
+            return null;
+        }
+        double[] bound = new double[candidates.length];
+        double best = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < candidates.length; j++) {
+            bound[j] = emission[j]
+                    + (hasPrev ? model.bestLogProbabilityAsSecond(ids[j]) : 0)
+                    + (hasNext ? model.bestLogProbabilityAsFirst(ids[j]) : 0);
+            best = Math.max(best, bound[j]);
+        }
+
+        // The lowest bound still kept by the cap, ties included
+        double threshold = best - maxScoreGap;
+        if (maxCandidates > 0 && maxCandidates < candidates.length) {
+            double[] sorted = bound.clone();
+            Arrays.sort(sorted);
+            threshold = Math.max(threshold, sorted[sorted.length - maxCandidates]);
+        }
+
+        int count = 0;
+        int[] kept = new int[candidates.length];
+        for (int j = 0; j < candidates.length; j++) {
+            if (bound[j] >= threshold || candidates[j].equals(word)) {
+                kept[count++] = j;
+            }
+        }
+        return count == candidates.length ? null : Arrays.copyOf(kept, count);
+    }
+}
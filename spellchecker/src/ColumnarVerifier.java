@@ -0,0 +1,150 @@
+
+/**
+ * Verifies a Damerau-Levenshtein distance of at most 1 between one pattern
+ * and many words of the same length at once. The words are stored in
+ * columns: character p of word j of a group of count words is at
+ * columns[offset + p * count + j], as a byte code, so the characters every
+ * word has at one position are next to each other.
+ *
+ * A word is followed with a few true/false states per position, the same
+ * for every word, so many words can be followed together. This class keeps
+ * the states of 64 words in the bits of a long. get() returns the Vector API
+ * version in vector/ instead if it was compiled and the JVM has the
+ * jdk.incubator.vector module; both find the same words.
+ */
+public class ColumnarVerifier {
+
+    private static volatile ColumnarVerifier instance;
+
+    /**
+     * Returns the fastest verifier this JVM can run. The system property
+     * spellchecker.vector=false keeps the scalar one.
+     */
+    public static ColumnarVerifier get() {
+        ColumnarVerifier result = instance;
+        if (result == null) {
+            result = new ColumnarVerifier();
+            if (!"false".equals(System.getProperty("spellchecker.vector"))) {
+                try {
+                    result = (ColumnarVerifier) Class.forName("VectorColumnarVerifier")
+                            .getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError ex) {
+                    // Not compiled, an older JVM or the module is missing
+                }
+            }
+            instance = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether this verifier uses the Vector API
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Appends to found the numbers, in order, of the words from until to of
+     * a group that are within distance 1 of pattern, and returns the new
+     * number of found words. found must have room for to - from more.
+     *
+     * @param columns words of the group by column, see above
+     * @param count number of words in the group
+     * @param length length of every word of the group
+     * @param pattern byte codes of the pattern, in the same code as the
+     * words
+     */
+    public int verify(byte[] columns, int offset, int count, int length, byte[] pattern,
+            int from, int to, int[] found, int foundCount) {
+        for (int block = from; block < to; block += 64) {
+            int size = Math.min(64, to - block);
+            long words = size == 64 ? -1L : (1L << size) - 1;
+            long match;
+            if (length == pattern.length) {
+                match = sameLength(columns, offset + block, count, pattern, size, words);
+            } else if (length == pattern.length - 1) {
+                match = oneShorter(columns, offset + block, count, length, pattern, size, words);
+            } else if (length == pattern.length + 1) {
+                match = oneLonger(columns, offset + block, count, pattern, size, words);
+            } else {
+                match = 0;
+            }
+            while (match != 0) {
+                found[foundCount++] = block + Long.numberOfTrailingZeros(match);
+                match &= match - 1;
+            }
+        }
+        return foundCount;
+    }
+
+    /**
+     * Returns the bits of the words whose character at start + j equals c
+     */
+    private static long equal(byte[] columns, int start, int size, byte c) {
+        long bits = 0;
+        for (int j = 0; j < size; j++) {
+            if (columns[start + j] == c) {
+                bits |= 1L << j;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Words of the length of the pattern, at most one substitution or
+     * transposition away. exact holds the words equal to the pattern so
+     * far, one those one edit away so far.
+     */
+    private static long sameLength(byte[] columns, int start, int count, byte[] pattern, int size, long words) {
+        long exact = words;
+        long exactBefore = 0; // exact one position earlier
+        long one = 0;
+        for (int p = 0; p < pattern.length && (exact | one) != 0; p++) {
+            int column = start + p * count;
+            long match = equal(columns, column, size, pattern[p]);
+            long next = (one & match) | (exact & ~match);
+            if (p > 0) {
+                // Characters p - 1 and p swapped
+                next |= exactBefore & equal(columns, column - count, size, pattern[p])
+                        & equal(columns, column, size, pattern[p - 1]);
+            }
+            exactBefore = exact;
+            exact &= match;
+            one = next;
+        }
+        return exact | one;
+    }
+
+    /**
+     * Words one shorter than the pattern, which the pattern has one
+     * character more. prefix holds the words equal to the pattern so far,
+     * skipped those that match after skipping a pattern character.
+     */
+    private static long oneShorter(byte[] columns, int start, int count, int length, byte[] pattern, int size,
+            long words) {
+        long prefix = words;
+        long skipped = words;
+        for (int p = 0; p < length && skipped != 0; p++) {
+            int column = start + p * count;
+            prefix &= equal(columns, column, size, pattern[p]);
+            skipped = (skipped & equal(columns, column, size, pattern[p + 1])) | prefix;
+        }
+        return skipped;
+    }
+
+    /**
+     * Words one longer than the pattern, which miss one character of the
+     * word. Like oneShorter with the roles swapped.
+     */
+    private static long oneLonger(byte[] columns, int start, int count, byte[] pattern, int size, long words) {
+        long prefix = words;
+        long skipped = words;
+        for (int p = 0; p < pattern.length && skipped != 0; p++) {
+            int column = start + p * count;
+            prefix &= equal(columns, column, size, pattern[p]);
+            skipped = (skipped & equal(columns, column + count, size, pattern[p])) | prefix;
+        }
+        return skipped;
+    }
+}
@@ -4,51 +4,472 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import static java.lang.Integer.max;
 
+/**
+ * Reads the confusion matrix. update adds counts while other threads go on
+ * reading: the counts, their dense copy and their total are replaced
+ * together with a single volatile write, so a probability is always
+ * computed from one consistent table without taking a lock.
+ *
+ * The loaded counts and their logarithms are kept in dense arrays that
+ * updates share as they are. The counts an update changes go into a chain
+ * of small segments, merged like those of CorpusDelta, where the newest
+ * segment holding an edit has its current count. A log probability is the
+ * log count minus the log of the total, so an update computes Math.log
+ * only for the edits it changes and once for the total.
+ */
 public class ConfusionMatrixReader {
 
     final static String DATAFILE_LOC = "confusion_matrix.txt";
-    final private HashMap<String, Integer> confusionMatrix = new HashMap<>();
-    final private HashMap<String, Integer> countMatrix = new HashMap<>();
 
-    final static int totalConfusionMatrix = 29320; // sum confusion matrix
+    final static int totalConfusionMatrix = 29320; // sum confusion matrix as loaded, updates add to it
+
+    // Kinds of edits in the confusion matrix, as <error>|<correct>
+    final static int SUBSTITUTION = 0;  // "x|y"
+    final static int DELETION = 1;      // "xy|x", y was typed by mistake
+    final static int INSERTION = 2;     // "x|xy", y was left out
+    final static int TRANSPOSITION = 3; // "xy|yx"
+    final static int NO_CORRECTION = -1; // code of an edit that is not in the matrix
+
+    private volatile Table table;
+
+    /**
+     * The confusion matrix with a dense copy of it: the count of edit
+     * (kind, x, y) is at correctionCounts[(kind * stride + code(x)) * stride
+     * + code(y)], -1 if absent, unless a segment holds a newer count. Never
+     * changed once published, so all counts read from one table belong to
+     * the same update.
+     */
+    static final class Table {
+
+        final Map<String, Integer> confusionMatrix; // keyed by <error>|<correct>, as loaded or laid out
+        final Map<String, Integer> countMatrix; // keyed by <error>
+        final char[] charCodes; // 0 for characters not in the matrix
+        final int alphabetSize; // codes in use, including 0
+        final int stride; // at least alphabetSize, doubled when new characters do not fit
+        final int[] correctionCounts;
+        final double[] logCounts; // Math.log of the count every code counts as, see logCount
+        final Segment[] segments; // counts updated since, oldest first
+        final long total; // totalConfusionMatrix plus all updates
+        final double logTotal;
+
+        Table(Map<String, Integer> confusionMatrix, Map<String, Integer> countMatrix, char[] charCodes,
+                int alphabetSize, int stride, int[] correctionCounts, double[] logCounts, Segment[] segments,
+                long total) {
+            this.confusionMatrix = confusionMatrix;
+            this.countMatrix = countMatrix;
+            this.charCodes = charCodes;
+            this.alphabetSize = alphabetSize;
+            this.stride = stride;
+            this.correctionCounts = correctionCounts;
+            this.logCounts = logCounts;
+            this.segments = segments;
+            this.total = total;
+            this.logTotal = Math.log(total);
+        }
+
+        int code(int kind, char x, char y) {
+            return (kind * stride + charCodes[x]) * stride + charCodes[y];
+        }
+
+        /**
+         * Returns the count of the edit with the given code, -1 if it is not
+         * in the matrix
+         */
+        int count(int code) {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                int slot = segments[i].slots.get(code, -1);
+                if (slot >= 0) {
+                    return segments[i].counts[slot];
+                }
+            }
+            // A code from before the table grew may be out of range
+            return code == NO_CORRECTION || code >= correctionCounts.length ? -1 : correctionCounts[code];
+        }
+
+        /**
+         * Returns the logarithm of the count the edit with the given code
+         * counts as, see logCount(int)
+         */
+        double logCount(int code) {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                int slot = segments[i].slots.get(code, -1);
+                if (slot >= 0) {
+                    return segments[i].logCounts[slot];
+                }
+            }
+            return code == NO_CORRECTION || code >= logCounts.length ? 0 : logCounts[code];
+        }
+
+        /**
+         * Returns the count of the key <error>|<correct>, 0 if absent
+         */
+        int getConfusionCount(String keys) {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                Integer count = segments[i].confusions.get(keys);
+                if (count != null) {
+                    return count;
+                }
+            }
+            return confusionMatrix.getOrDefault(keys, 0);
+        }
+
+        /**
+         * Returns ConfusionMatrixReader.getLogProbabilityCorrection(edits)
+         * in this table
+         */
+        double getLogProbabilityCorrection(Edit[] edits) {
+            if (edits.length == 0) {
+                return logCount(NO_CORRECTION) - logTotal;
+            }
+            double logProbability = 0;
+            for (Edit edit : edits) {
+                logProbability += logCount(code(edit.kind, edit.x, edit.y)) - logTotal;
+            }
+            return logProbability;
+        }
+
+        int getErrorCount(String error) {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                Integer count = segments[i].errorCounts.get(error);
+                if (count != null) {
+                    return count;
+                }
+            }
+            return countMatrix.getOrDefault(error, 0);
+        }
+    }
+
+    /**
+     * The current counts of the keys that one or more consecutive updates
+     * changed. Never changed once built.
+     */
+    private static class Segment {
+
+        final Map<String, Integer> confusions; // keyed by <error>|<correct>
+        final Map<String, Integer> errorCounts; // keyed by <error>
+        final LongIntHashMap slots; // code of each key of the four kinds of edits to its index below
+        final int[] codes;
+        final int[] counts;
+        final double[] logCounts;
+
+        Segment(Map<String, Integer> confusions, Map<String, Integer> errorCounts, int[] codes, int[] counts,
+                double[] logCounts) {
+            this.confusions = confusions;
+            this.errorCounts = errorCounts;
+            this.codes = codes;
+            this.counts = counts;
+            this.logCounts = logCounts;
+            slots = new LongIntHashMap(codes.length);
+            for (int i = 0; i < codes.length; i++) {
+                slots.put(codes[i], i);
+            }
+        }
+
+        /**
+         * Returns the number of entries, which is what merging copies
+         */
+        int size() {
+            return confusions.size() + errorCounts.size();
+        }
+
+        /**
+         * Returns one segment of older and the newer segment that follows
+         * it, with the counts of newer where both have a key
+         */
+        static Segment merge(Segment older, Segment newer) {
+            Map<String, Integer> confusions = new HashMap<>(older.confusions);
+            confusions.putAll(newer.confusions);
+            Map<String, Integer> errorCounts = new HashMap<>(older.errorCounts);
+            errorCounts.putAll(newer.errorCounts);
+            int n = 0;
+            int[] codes = new int[older.codes.length + newer.codes.length];
+            int[] counts = new int[codes.length];
+            double[] logCounts = new double[codes.length];
+            for (int i = 0; i < older.codes.length; i++) {
+                if (!newer.slots.containsKey(older.codes[i])) {
+                    codes[n] = older.codes[i];
+                    counts[n] = older.counts[i];
+                    logCounts[n++] = older.logCounts[i];
+                }
+            }
+            System.arraycopy(newer.codes, 0, codes, n, newer.codes.length);
+            System.arraycopy(newer.counts, 0, counts, n, newer.codes.length);
+            System.arraycopy(newer.logCounts, 0, logCounts, n, newer.codes.length);
+            n += newer.codes.length;
+            return new Segment(confusions, errorCounts, Arrays.copyOf(codes, n), Arrays.copyOf(counts, n),
+                    Arrays.copyOf(logCounts, n));
+        }
+    }
 
     public ConfusionMatrixReader() {
+        Map<String, Integer> confusionMatrix = new HashMap<>();
+        Map<String, Integer> countMatrix = new HashMap<>();
         try {
-            readConfusionMatrix();
+            readConfusionMatrix(confusionMatrix, countMatrix);
         } catch (Exception ex) {
             Logger.getLogger(ConfusionMatrixReader.class.getName()).log(Level.SEVERE, null, ex);
         }
+        table = buildTable(confusionMatrix, countMatrix);
+    }
+
+    /**
+     * Creates a confusion matrix reader from a compiled model instead of the
+     * text file.
+     */
+    ConfusionMatrixReader(ModelImage image) {
+        Map<String, Integer> confusionMatrix = new HashMap<>();
+        Map<String, Integer> countMatrix = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : image.confusionMatrix.entrySet()) {
+            addConfusion(confusionMatrix, countMatrix, entry.getKey(), entry.getValue());
+        }
+        table = buildTable(confusionMatrix, countMatrix);
     }
 
-    private void readConfusionMatrix()
+    private static void readConfusionMatrix(Map<String, Integer> confusionMatrix, Map<String, Integer> countMatrix)
             throws FileNotFoundException, IOException {
-        FileInputStream fis;
-        fis = new FileInputStream(DATAFILE_LOC);
-        BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-
-        while (in.ready()) {
-            String line = in.readLine();
-            int space = line.lastIndexOf(' ');
-            String keys = line.substring(0, space);
-            try {
-                int count = Integer.parseInt(line.substring(space + 1));
-                confusionMatrix.put(keys, count);
-
-                String key = keys.substring(0, keys.indexOf('|'));
-                Integer value = countMatrix.get(key);
-                if (value == null) {
-                    value = 0;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(DATAFILE_LOC)))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                String keys = line.substring(0, space);
+                try {
+                    int count = Integer.parseInt(line.substring(space + 1));
+                    addConfusion(confusionMatrix, countMatrix, keys, count);
+                } catch (NumberFormatException e) {
+                    System.err.println("problems with string <" + line + ">");
+                }
+            }
+        }
+    }
+
+    private static void addConfusion(Map<String, Integer> confusionMatrix, Map<String, Integer> countMatrix,
+            String keys, int count) {
+        confusionMatrix.merge(keys, count, Integer::sum);
+        countMatrix.merge(keys.substring(0, keys.indexOf('|')), count, Integer::sum);
+    }
+
+    /**
+     * Returns a new table of the counts, with the counts of confusionMatrix
+     * and their logarithms copied into its dense arrays. Only keys of the
+     * four kinds of edits are copied, e.g. not "ab|cd".
+     */
+    private static Table buildTable(Map<String, Integer> confusionMatrix, Map<String, Integer> countMatrix) {
+        char[] charCodes = new char[Character.MAX_VALUE + 1];
+        // Code 0 is for characters that are not in the matrix
+        int alphabetSize = addCharacters(charCodes, 1, confusionMatrix.keySet());
+
+        int[] correctionCounts = new int[4 * alphabetSize * alphabetSize];
+        Arrays.fill(correctionCounts, -1);
+        double[] logCounts = new double[correctionCounts.length];
+        Table built = new Table(confusionMatrix, countMatrix, charCodes, alphabetSize, alphabetSize,
+                correctionCounts, logCounts, new Segment[0], totalConfusionMatrix);
+        for (Map.Entry<String, Integer> entry : confusionMatrix.entrySet()) {
+            int code = getCorrectionCode(built, entry.getKey());
+            if (code != NO_CORRECTION) {
+                correctionCounts[code] = entry.getValue();
+                logCounts[code] = logCount(entry.getValue());
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Returns the logarithm of the count an edit with the given count
+     * counts as: one more than nothing for edits that are not in the matrix,
+     * to prevent a zero probability
+     */
+    private static double logCount(int count) {
+        return count < 0 ? 0 : Math.log(count);
+    }
+
+    /**
+     * Gives the characters of keys that have no code yet the next codes,
+     * starting at alphabetSize, and returns the new alphabet size
+     */
+    private static int addCharacters(char[] charCodes, int alphabetSize, Iterable<String> keys) {
+        for (String key : keys) {
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                if (c != '|' && charCodes[c] == 0) {
+                    charCodes[c] = (char) alphabetSize++;
+                }
+            }
+        }
+        return alphabetSize;
+    }
+
+    /**
+     * Adds counts to the confusion matrix, e.g. of corrections users
+     * accepted. The current counts of the given keys go into a new segment,
+     * which is merged with the newest segments while those are less than
+     * twice as large. The dense arrays are shared as they are, unless new
+     * characters do not fit: then they are laid out again with the segments
+     * folded in. Readers see the matrix either before or after the whole
+     * update.
+     *
+     * @param confusions positive counts keyed by <error>|<correct>
+     */
+    public synchronized void update(Map<String, Integer> confusions) {
+        for (Map.Entry<String, Integer> entry : confusions.entrySet()) {
+            if (entry.getValue() <= 0 || entry.getKey().indexOf('|') < 0) {
+                throw new IllegalArgumentException("Not a positive count of <error>|<correct>: " + entry);
+            }
+        }
+
+        Table current = table;
+        if (hasNewCharacter(current.charCodes, confusions.keySet())) {
+            char[] charCodes = Arrays.copyOf(current.charCodes, current.charCodes.length);
+            int alphabetSize = addCharacters(charCodes, current.alphabetSize, confusions.keySet());
+            int stride = current.stride;
+            while (stride < alphabetSize) {
+                stride *= 2;
+            }
+            current = stride == current.stride
+                    ? new Table(current.confusionMatrix, current.countMatrix, charCodes, alphabetSize, stride,
+                            current.correctionCounts, current.logCounts, current.segments, current.total)
+                    : relayout(current, charCodes, alphabetSize, stride);
+        }
+
+        Map<String, Integer> updated = new HashMap<>(confusions.size() * 2);
+        Map<String, Integer> errorCounts = new HashMap<>(confusions.size() * 2);
+        long total = current.total;
+        for (Map.Entry<String, Integer> entry : confusions.entrySet()) {
+            String keys = entry.getKey();
+            String error = keys.substring(0, keys.indexOf('|'));
+            updated.put(keys, current.getConfusionCount(keys) + entry.getValue());
+            errorCounts.put(error, errorCounts.getOrDefault(error, current.getErrorCount(error)) + entry.getValue());
+            total += entry.getValue();
+        }
+        int n = 0;
+        int[] codes = new int[updated.size()];
+        int[] counts = new int[codes.length];
+        double[] logCounts = new double[codes.length];
+        for (Map.Entry<String, Integer> entry : updated.entrySet()) {
+            int code = getCorrectionCode(current, entry.getKey());
+            if (code != NO_CORRECTION) {
+                codes[n] = code;
+                counts[n] = entry.getValue();
+                logCounts[n++] = logCount(entry.getValue());
+            }
+        }
+        Segment segment = new Segment(updated, errorCounts, Arrays.copyOf(codes, n), Arrays.copyOf(counts, n),
+                Arrays.copyOf(logCounts, n));
+
+        Segment[] segments = current.segments;
+        int kept = segments.length;
+        while (kept > 0 && segments[kept - 1].size() < 2 * segment.size()) {
+            segment = Segment.merge(segments[--kept], segment);
+        }
+        Segment[] chain = Arrays.copyOf(segments, kept + 1);
+        chain[kept] = segment;
+        table = new Table(current.confusionMatrix, current.countMatrix, current.charCodes, current.alphabetSize,
+                current.stride, current.correctionCounts, current.logCounts, chain, total);
+    }
+
+    private static boolean hasNewCharacter(char[] charCodes, Iterable<String> keys) {
+        for (String key : keys) {
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                if (c != '|' && charCodes[c] == 0) {
+                    return true;
                 }
-                countMatrix.put(key, value + count);
-            } catch (NumberFormatException e) {
-                System.err.println("problems with string <" + line + ">");
             }
         }
+        return false;
+    }
+
+    /**
+     * Returns table laid out with a larger stride and the given character
+     * codes, with its segments folded into the maps and dense arrays
+     */
+    private static Table relayout(Table table, char[] charCodes, int alphabetSize, int stride) {
+        int[] counts = new int[4 * stride * stride];
+        double[] logCounts = new double[counts.length];
+        Arrays.fill(counts, -1);
+        int old = table.stride;
+        for (int kind = 0; kind < 4; kind++) {
+            for (int x = 0; x < old; x++) {
+                int from = (kind * old + x) * old;
+                int to = (kind * stride + x) * stride;
+                System.arraycopy(table.correctionCounts, from, counts, to, old);
+                System.arraycopy(table.logCounts, from, logCounts, to, old);
+            }
+        }
+
+        Map<String, Integer> confusionMatrix = new HashMap<>(table.confusionMatrix);
+        Map<String, Integer> countMatrix = new HashMap<>(table.countMatrix);
+        for (Segment segment : table.segments) {
+            confusionMatrix.putAll(segment.confusions);
+            countMatrix.putAll(segment.errorCounts);
+        }
+        Table laidOut = new Table(confusionMatrix, countMatrix, charCodes, alphabetSize, stride, counts, logCounts,
+                new Segment[0], table.total);
+        for (Segment segment : table.segments) {
+            for (Map.Entry<String, Integer> entry : segment.confusions.entrySet()) {
+                int code = getCorrectionCode(laidOut, entry.getKey());
+                if (code != NO_CORRECTION) {
+                    counts[code] = entry.getValue();
+                    logCounts[code] = logCount(entry.getValue());
+                }
+            }
+        }
+        return laidOut;
+    }
+
+    /**
+     * Returns the code of a key <error>|<correct> in table, or NO_CORRECTION
+     * if it is not one of the four kinds of edits.
+     */
+    private static int getCorrectionCode(Table table, String keys) {
+        int bar = keys.indexOf('|');
+        String error = keys.substring(0, bar);
+        String correct = keys.substring(bar + 1);
+        if (error.length() == 1 && correct.length() == 1) {
+            return table.code(SUBSTITUTION, error.charAt(0), correct.charAt(0));
+        } else if (error.length() == 2 && correct.length() == 1 && correct.charAt(0) == error.charAt(0)) {
+            return table.code(DELETION, error.charAt(0), error.charAt(1));
+        } else if (error.length() == 1 && correct.length() == 2 && correct.charAt(0) == error.charAt(0)) {
+            return table.code(INSERTION, error.charAt(0), correct.charAt(1));
+        } else if (error.length() == 2 && correct.length() == 2
+                && correct.charAt(0) == error.charAt(1) && correct.charAt(1) == error.charAt(0)) {
+            return table.code(TRANSPOSITION, error.charAt(0), error.charAt(1));
+        }
+        return NO_CORRECTION;
+    }
+
+    /**
+     * Returns the current table, to read several counts from the same
+     * update
+     */
+    Table getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the code of an edit of the given kind on characters x and y, in
+     * the order they appear in the error, e.g. DELETION, 'n', 'g' for "ng|n".
+     * A code holds until an update adds new characters.
+     */
+    int getCorrectionCode(int kind, char x, char y) {
+        return table.code(kind, x, y);
+    }
+
+    /**
+     * Returns a copy of the current counts, keyed by <error>|<correct>
+     */
+    Map<String, Integer> getConfusionMatrix() {
+        Table current = table;
+        Map<String, Integer> confusionMatrix = new HashMap<>(current.confusionMatrix);
+        for (Segment segment : current.segments) {
+            confusionMatrix.putAll(segment.confusions);
+        }
+        return confusionMatrix;
     }
 
     /**
@@ -60,43 +481,34 @@ public class ConfusionMatrixReader {
      * @return
      */
     public int getConfusionCount(String error, String correct) {
-        Integer count = confusionMatrix.get(error + "|" + correct);
-        return count == null ? 0 : count;
+        return table.getConfusionCount(error + "|" + correct);
     }
 
     /**
      * Compares two words to find the correction in the form <error>|<correct>,
-     * e.g. "ng|n".
+     * e.g. "ng|n". Words more than one edit apart give the first edit, see
+     * DamerauLevenshtein.align.
      */
     public String getCorrection(String originalWord, String correctedWord) {
-        // Space is seen as character in the confusion matrix
-        originalWord = " " + originalWord;
-        correctedWord = " " + correctedWord;
-
-        // Iterate until ends of both words are reached
-        int endIndex = max(originalWord.length(), correctedWord.length());
-        for (int i = 1; i < endIndex; i++) {
-            if ((i == endIndex - 1 && originalWord.length() != correctedWord.length())
-                    || originalWord.charAt(i) != correctedWord.charAt(i)) { // there is a difference
-
-                if (originalWord.length() == correctedWord.length()) { // transposition or substitution
-
-                    if (i + 1 < originalWord.length() // transposition
-                            && originalWord.charAt(i + 1) != correctedWord.charAt(i + 1)) {
-                        return originalWord.substring(i, i + 2) + "|" + correctedWord.substring(i, i + 2);
-                    } else { // substitution
-                        return originalWord.substring(i, i + 1) + "|" + correctedWord.substring(i, i + 1);
-                    }
-
-                } else if (originalWord.length() > correctedWord.length()) { // deletion
-                    return originalWord.substring(i - 1, i + 1) + "|" + correctedWord.substring(i - 1, i);
-                } else if (originalWord.length() < correctedWord.length()) { // insertion
-                    return originalWord.substring(i - 1, i) + "|" + correctedWord.substring(i - 1, i + 1);
-                }
-            }
-        }
+        Edit[] edits = DamerauLevenshtein.align(originalWord, correctedWord, Integer.MAX_VALUE);
+        return edits.length == 0 ? "" : edits[0].getKey(); // equal words are never compared
+    }
+
+    /**
+     * Returns the code of the correction between two words, the edit
+     * getCorrection finds, without building any strings. Returns
+     * NO_CORRECTION if the words are equal or more than one edit apart.
+     */
+    public int getCorrectionCode(String originalWord, String correctedWord) {
+        Edit[] edits = DamerauLevenshtein.align(originalWord, correctedWord, 1);
+        return edits == null || edits.length == 0 ? NO_CORRECTION : getCorrectionCode(edits[0]);
+    }
 
-        return ""; // doesn't matter since only different words are compared
+    /**
+     * Returns the code of edit, see getCorrectionCode(int, char, char)
+     */
+    int getCorrectionCode(Edit edit) {
+        return table.code(edit.kind, edit.x, edit.y);
     }
 
     /**
@@ -104,17 +516,53 @@ public class ConfusionMatrixReader {
      * correctedWord using a confusion matrix.
      */
     public double getProbabilityCorrection(String originalWord, String correctedWord) {
-        // Get correction, e.g. "ng|g"
-        String correction = getCorrection(originalWord, correctedWord);
+        return getProbabilityCorrection(DamerauLevenshtein.align(originalWord, correctedWord, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the probability of making all of edits, each independently of
+     * the others. Equal words, with no edits, get the probability of an edit
+     * that is not in the matrix.
+     */
+    public double getProbabilityCorrection(Edit[] edits) {
+        // Get the counts of all edits, e.g. "ng|g", from the same table
+        Table current = table;
+        if (edits.length == 0) {
+            return getProbabilityCorrection(current, NO_CORRECTION);
+        }
+        double probability = 1;
+        for (Edit edit : edits) {
+            probability *= getProbabilityCorrection(current, current.code(edit.kind, edit.x, edit.y));
+        }
+        return probability;
+    }
+
+    /**
+     * Returns the logarithm of getProbabilityCorrection(edits), the sum of
+     * the log counts of the edits minus the log of the total for each,
+     * without calling Math.log.
+     */
+    public double getLogProbabilityCorrection(Edit[] edits) {
+        return table.getLogProbabilityCorrection(edits);
+    }
+
+    /**
+     * Returns the probability of the correction with the given code.
+     */
+    public double getProbabilityCorrection(int correctionCode) {
+        return getProbabilityCorrection(table, correctionCode);
+    }
+
+    private static double getProbabilityCorrection(Table table, int correctionCode) {
         // Get count from confusion matrix
-        Integer correctionCount = confusionMatrix.get(correction);
+        int correctionCount = table.count(correctionCode);
 
         // Add one to prevent zero-probablity problem
-        if (correctionCount == null) {
+        if (correctionCount < 0) {
             correctionCount = 1;
         }
 
         // Return probability
-        return (double) correctionCount / totalConfusionMatrix;
+        return (double) correctionCount / table.total;
     }
 }
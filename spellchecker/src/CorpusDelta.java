@@ -0,0 +1,445 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Words and counts added to a CorpusReader after it was loaded. A delta
+ * never changes once it is published: the next update returns a new one,
+ * and CorpusReader publishes it with a single volatile write. Readers
+ * therefore see all of an update or none of it without taking a lock.
+ *
+ * A delta is a chain of segments, each the words, counts and candidate
+ * index of one or more updates, which the next delta shares as they are.
+ * An update only builds the segment of its own words and counts. It merges
+ * that with the newest segments while those are less than twice as large,
+ * so the chain stays about log2 of the added entries long, and each entry
+ * is copied a logarithmic number of times over all updates. Lookups add up
+ * the segments, but only for words whose counts changed: those are marked
+ * in a bit set that updates copy per chunk of ids they touch.
+ */
+class CorpusDelta {
+
+    final private static int CHUNK_BITS = 12; // ids per chunk of the changed set, as a power of 2
+
+    final int loadedWordCount; // ids from here on are added words
+    final private Segment[] segments; // oldest first
+    final private long[][] changed; // per chunk, a bit per loaded word id whose counts changed; chunks are shared
+    final private int addedWordCount;
+    final private int addedVocabularyCount;
+
+    /**
+     * Words and counts of one or more consecutive updates. Never changed
+     * once built.
+     */
+    private static class Segment {
+
+        final int firstWordId; // words[i] has id firstWordId + i
+        final String[] words;
+        final HashMap<String, Integer> wordIds;
+        final int[] vocabulary; // ids of the words added to the vocabulary
+        final String[] vocabularyWords; // the same words
+        final HashMap<String, Integer> vocabularyIds;
+        final SymmetricDeleteIndex index; // over vocabulary only
+
+        // Added counts, keyed by word id or by LongIntHashMap.pairKey
+        final LongIntHashMap unigramCounts;
+        final LongIntHashMap bigramCounts;
+        final LongIntHashMap prevTotals; // sum of the added bigram counts per first word
+        final LongIntHashMap nextTotals; // sum of the added bigram counts per second word
+        final LongIntHashMap followers; // new distinct second words per first word
+        final LongIntHashMap predecessors; // new distinct first words per second word
+
+        Segment(int firstWordId, String[] words, int[] vocabulary, String[] vocabularyWords,
+                LongIntHashMap unigramCounts, LongIntHashMap bigramCounts, LongIntHashMap prevTotals,
+                LongIntHashMap nextTotals, LongIntHashMap followers, LongIntHashMap predecessors) {
+            this.firstWordId = firstWordId;
+            this.words = words;
+            this.vocabulary = vocabulary;
+            this.vocabularyWords = vocabularyWords;
+            this.unigramCounts = unigramCounts;
+            this.bigramCounts = bigramCounts;
+            this.prevTotals = prevTotals;
+            this.nextTotals = nextTotals;
+            this.followers = followers;
+            this.predecessors = predecessors;
+
+            wordIds = new HashMap<>(words.length * 2);
+            for (int i = 0; i < words.length; i++) {
+                wordIds.put(words[i], firstWordId + i);
+            }
+            vocabularyIds = new HashMap<>(vocabulary.length * 2);
+            for (int i = 0; i < vocabulary.length; i++) {
+                vocabularyIds.put(vocabularyWords[i], vocabulary[i]);
+            }
+            index = new SymmetricDeleteIndex(vocabularyIds.keySet(), vocabularyIds);
+        }
+
+        /**
+         * Returns the number of entries, which is what merging copies
+         */
+        int size() {
+            return words.length + vocabulary.length + unigramCounts.size() + bigramCounts.size();
+        }
+
+        /**
+         * Returns one segment of older and the newer segment that follows it
+         */
+        static Segment merge(Segment older, Segment newer) {
+            return new Segment(older.firstWordId, concat(older.words, newer.words),
+                    concat(older.vocabulary, newer.vocabulary), concat(older.vocabularyWords, newer.vocabularyWords),
+                    sum(older.unigramCounts, newer.unigramCounts), sum(older.bigramCounts, newer.bigramCounts),
+                    sum(older.prevTotals, newer.prevTotals), sum(older.nextTotals, newer.nextTotals),
+                    sum(older.followers, newer.followers), sum(older.predecessors, newer.predecessors));
+        }
+
+        private static String[] concat(String[] first, String[] second) {
+            String[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+
+        private static int[] concat(int[] first, int[] second) {
+            int[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+
+        private static LongIntHashMap sum(LongIntHashMap first, LongIntHashMap second) {
+            LongIntHashMap result = new LongIntHashMap(first);
+            long[] keys = second.getKeys();
+            int[] values = second.getValues();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] >= 0) {
+                    result.add(keys[i], values[i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Creates an empty delta
+     */
+    CorpusDelta(int loadedWordCount) {
+        this(loadedWordCount, new Segment[0],
+                new long[(loadedWordCount + (1 << CHUNK_BITS) - 1) >>> CHUNK_BITS][], 0, 0);
+    }
+
+    private CorpusDelta(int loadedWordCount, Segment[] segments, long[][] changed, int addedWordCount,
+            int addedVocabularyCount) {
+        this.loadedWordCount = loadedWordCount;
+        this.segments = segments;
+        this.changed = changed;
+        this.addedWordCount = addedWordCount;
+        this.addedVocabularyCount = addedVocabularyCount;
+    }
+
+    /**
+     * Returns the delta with the given words and counts added, see
+     * CorpusReader.update. cr supplies the loaded model and this delta.
+     */
+    CorpusDelta with(CorpusReader cr, Collection<String> newWords, Map<String, Integer> nGramCounts) {
+        int firstWordId = loadedWordCount + addedWordCount;
+        LinkedHashMap<String, Integer> wordIds = new LinkedHashMap<>(); // new words, in id order
+        LinkedHashMap<String, Integer> vocabularyIds = new LinkedHashMap<>(); // in the order they were added
+        LongIntHashMap unigrams = new LongIntHashMap();
+        LongIntHashMap bigrams = new LongIntHashMap();
+        LongIntHashMap prev = new LongIntHashMap();
+        LongIntHashMap next = new LongIntHashMap();
+        LongIntHashMap after = new LongIntHashMap();
+        LongIntHashMap before = new LongIntHashMap();
+        long[][] changedIds = changed.clone();
+        boolean[] copied = new boolean[changedIds.length]; // chunks this update already copied
+
+        for (String word : newWords) {
+            if (cr.isInVocabulary(word)) {
+                continue;
+            }
+            int id = cr.getWordId(word);
+            if (id < 0) {
+                id = wordIds.getOrDefault(word, -1);
+            }
+            if (id < 0) {
+                id = firstWordId + wordIds.size();
+                wordIds.put(word, id);
+            }
+            vocabularyIds.put(word, id); // the same word may be listed twice
+        }
+
+        for (Map.Entry<String, Integer> entry : nGramCounts.entrySet()) {
+            String nGram = entry.getKey();
+            int count = entry.getValue();
+            if (count <= 0) {
+                throw new IllegalArgumentException("Counts can only be increased: " + nGram);
+            }
+            int space = nGram.indexOf(' ');
+            if (space < 0) {
+                int id = idOf(cr, wordIds, nGram);
+                unigrams.add(id, count);
+                markChanged(changedIds, copied, id);
+            } else if (nGram.indexOf(' ', space + 1) < 0) {
+                int first = idOf(cr, wordIds, nGram.substring(0, space));
+                int second = idOf(cr, wordIds, nGram.substring(space + 1));
+                long key = LongIntHashMap.pairKey(first, second);
+                if (cr.getLoadedBigramCount(first, second) == 0 && getBigramCount(first, second) == 0
+                        && bigrams.get(key, 0) == 0) {
+                    after.add(first, 1);
+                    before.add(second, 1);
+                }
+                bigrams.add(key, count);
+                prev.add(first, count);
+                next.add(second, count);
+                markChanged(changedIds, copied, first);
+                markChanged(changedIds, copied, second);
+            } else {
+                throw new IllegalArgumentException("Only unigram and bigram counts can be updated: " + nGram);
+            }
+        }
+
+        String[] words = wordIds.keySet().toArray(new String[0]);
+        String[] vocabularyWords = vocabularyIds.keySet().toArray(new String[0]);
+        int[] vocabulary = new int[vocabularyWords.length];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = vocabularyIds.get(vocabularyWords[i]);
+        }
+        Segment segment = new Segment(firstWordId, words, vocabulary, vocabularyWords, unigrams, bigrams, prev,
+                next, after, before);
+        if (segment.size() == 0) {
+            return this;
+        }
+        int kept = segments.length;
+        while (kept > 0 && segments[kept - 1].size() < 2 * segment.size()) {
+            segment = Segment.merge(segments[--kept], segment);
+        }
+        Segment[] chain = Arrays.copyOf(segments, kept + 1);
+        chain[kept] = segment;
+        return new CorpusDelta(loadedWordCount, chain, changedIds, addedWordCount + words.length,
+                addedVocabularyCount + vocabulary.length);
+    }
+
+    /**
+     * Marks a loaded word as changed, copying its chunk the first time
+     * this update touches it. Added words count as changed anyway.
+     */
+    private static void markChanged(long[][] changed, boolean[] copied, int id) {
+        if (id >= (long) changed.length << CHUNK_BITS) {
+            return;
+        }
+        int chunk = id >>> CHUNK_BITS;
+        if (!copied[chunk]) {
+            long[] bits = changed[chunk];
+            changed[chunk] = bits == null ? new long[1 << (CHUNK_BITS - 6)] : bits.clone();
+            copied[chunk] = true;
+        }
+        changed[chunk][(id >>> 6) & ((1 << (CHUNK_BITS - 6)) - 1)] |= 1L << id;
+    }
+
+    private static int idOf(CorpusReader cr, Map<String, Integer> wordIds, String word) {
+        int id = cr.getWordId(word);
+        if (id < 0) {
+            id = wordIds.getOrDefault(word, -1);
+        }
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown word, add it first: " + word);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of an added word, or -1
+     */
+    int getWordId(String word) {
+        for (Segment segment : segments) {
+            Integer id = segment.wordIds.get(word);
+            if (id != null) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the word with the given id if it was added, otherwise
+     * loadedWord
+     */
+    String getWord(int id, String loadedWord) {
+        if (id < loadedWordCount) {
+            return loadedWord;
+        }
+        for (Segment segment : segments) {
+            if (id < segment.firstWordId + segment.words.length) {
+                return segment.words[id - segment.firstWordId];
+            }
+        }
+        throw new ArrayIndexOutOfBoundsException(id);
+    }
+
+    boolean isInAddedVocabulary(String word) {
+        for (Segment segment : segments) {
+            if (segment.vocabularyIds.containsKey(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getAddedWordCount() {
+        return addedWordCount;
+    }
+
+    int getAddedVocabularyCount() {
+        return addedVocabularyCount;
+    }
+
+    /**
+     * Returns the words added to the vocabulary, in the order they were
+     * added
+     */
+    String[] getAddedVocabulary() {
+        String[] result = new String[addedVocabularyCount];
+        int n = 0;
+        for (Segment segment : segments) {
+            System.arraycopy(segment.vocabularyWords, 0, result, n, segment.vocabularyWords.length);
+            n += segment.vocabularyWords.length;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of added vocabulary words that may be within distance 1
+     * of word, from the index of every segment
+     */
+    int[] getCandidates(String word) {
+        int[] result = new int[0];
+        for (Segment segment : segments) {
+            if (segment.vocabulary.length > 0) {
+                result = Segment.concat(result, segment.index.getCandidates(word));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of added vocabulary words that may be within distance
+     * k of word. The index only covers distance 1, so for larger k all added
+     * words are returned; there are few.
+     */
+    int[] getCandidates(String word, int k) {
+        if (k <= 1) {
+            return getCandidates(word);
+        }
+        int[] result = new int[addedVocabularyCount];
+        int n = 0;
+        for (Segment segment : segments) {
+            System.arraycopy(segment.vocabulary, 0, result, n, segment.vocabulary.length);
+            n += segment.vocabulary.length;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the counts of the word with the given id differ from
+     * the loaded model
+     */
+    boolean isChanged(int id) {
+        if (id >= loadedWordCount) {
+            return true;
+        }
+        if (id < 0) {
+            return false;
+        }
+        long[] bits = changed[id >>> CHUNK_BITS];
+        return bits != null && (bits[(id >>> 6) & ((1 << (CHUNK_BITS - 6)) - 1)] & (1L << id)) != 0;
+    }
+
+    /**
+     * Returns the added count of the word with the given id
+     */
+    int getUnigramCount(int id) {
+        if (!isChanged(id)) {
+            return 0;
+        }
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.unigramCounts.get(id, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the added count of the bigram "first second"
+     */
+    int getBigramCount(int firstId, int secondId) {
+        if (!isChanged(firstId) || !isChanged(secondId)) {
+            return 0;
+        }
+        long key = LongIntHashMap.pairKey(firstId, secondId);
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.bigramCounts.get(key, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the added bigram counts with the given first word
+     */
+    int getPrevTotal(int id) {
+        if (!isChanged(id)) {
+            return 0;
+        }
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.prevTotals.get(id, 0);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the sum of the added bigram counts with the given second word
+     */
+    int getNextTotal(int id) {
+        if (!isChanged(id)) {
+            return 0;
+        }
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.nextTotals.get(id, 0);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of new distinct second words after the given word
+     */
+    int getFollowers(int id) {
+        if (!isChanged(id)) {
+            return 0;
+        }
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.followers.get(id, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of new distinct first words before the given word
+     */
+    int getPredecessors(int id) {
+        if (!isChanged(id)) {
+            return 0;
+        }
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.predecessors.get(id, 0);
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return segments.length == 0;
+    }
+}
@@ -5,82 +5,296 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * Reads the vocabulary and n-gram counts. The loaded model never changes.
+ * update adds words and counts on top of it while other threads go on
+ * reading: every update is published at once as a new snapshot, so readers
+ * take no locks and never see half an update.
+ */
 public class CorpusReader {
 
     final static String CNTFILE_LOC = "samplecnt.txt";
     final static String VOCFILE_LOC = "samplevoc.txt";
 
-    private HashMap<String, Integer> ngrams;
-    private Set<String> vocabulary;
-    private HashMap<Integer, Integer> nGramCountFrequencies;
+    // Vocabulary words have their ids in the automaton; the few corpus words
+    // outside it are numbered from the vocabulary size on
+    private HashMap<String, Integer> extraWordIds;
+    private ArrayList<String> extraWords; // by id minus the vocabulary size
+    private int[] unigramCounts; // indexed by word id
+    private double[] logUnigramCounts; // Math.log of unigramCounts, computed at load
+    private double logVocabularySize; // Math.log of the loaded vocabulary size, the V of getProbability
+    private LongIntHashMap bigramCounts; // keyed by LongIntHashMap.pairKey of the word ids
+    private HashMap<String, Integer> ngrams; // n-grams of three or more words
+    private VocabularyAutomaton vocabulary;
+    private volatile SymmetricDeleteIndex candidateIndex; // built on first use
+    private volatile LengthShardedVocabulary lengthShardedVocabulary; // built on first use
+    private volatile TrigramModel trigramModel; // built on first use
+    private volatile Snapshot snapshot; // updates since loading, with the bigram model including them
 
     final static double K = 0.005; // used for Add-K smoothing
-    private int maxCount; // used for Good-Turing smoothing
 
     public CorpusReader() throws IOException {
-        readNGrams();
+        extraWordIds = new HashMap<>();
+        extraWords = new ArrayList<>();
         readVocabulary();
-//        determineNGramCountFrequencies();
+        unigramCounts = new int[vocabulary.size() + 1024];
+        readNGrams();
+        logUnigramCounts = logCounts();
+        logVocabularySize = Math.log(vocabulary.size());
+        snapshot = new Snapshot(new CorpusDelta(getWordCount()), new BigramModel(this, new AddKSmoothing(K)));
+    }
+
+    /**
+     * Updates since loading together with the bigram model that includes
+     * them, published as one. Everything read from one snapshot belongs to
+     * the same update, so a phrase scored from one snapshot never mixes
+     * states; the getters of CorpusReader each read the latest.
+     */
+    final class Snapshot {
+
+        final CorpusDelta delta;
+        final BigramModel bigramModel;
+
+        Snapshot(CorpusDelta delta, BigramModel bigramModel) {
+            this.delta = delta;
+            this.bigramModel = bigramModel;
+        }
+
+        boolean isInVocabulary(String word) {
+            return vocabulary.contains(word) || delta.isInAddedVocabulary(word);
+        }
+
+        int getWordId(String word) {
+            int id = getLoadedWordId(word);
+            return id < 0 ? delta.getWordId(word) : id;
+        }
+
+        String getWord(int wordId) {
+            return wordId < getWordCount() ? getLoadedWord(wordId) : delta.getWord(wordId, null);
+        }
+
+        int getUnigramCount(int wordId) {
+            if (wordId < 0) {
+                return 0;
+            }
+            int loaded = wordId < getWordCount() ? unigramCounts[wordId] : 0;
+            return loaded + delta.getUnigramCount(wordId);
+        }
+
+        int getBigramCount(int firstId, int secondId) {
+            if (firstId < 0 || secondId < 0) {
+                return 0;
+            }
+            long key = LongIntHashMap.pairKey(firstId, secondId);
+            return bigramCounts.get(key, 0) + delta.getBigramCount(firstId, secondId);
+        }
+
+        /**
+         * Returns CorpusReader.getLogProbability(wordId) in this snapshot
+         */
+        double getLogProbability(int wordId) {
+            if (wordId < 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            int added = delta.getUnigramCount(wordId);
+            double logCount;
+            if (added == 0 && wordId < logUnigramCounts.length) {
+                logCount = logUnigramCounts[wordId];
+            } else {
+                logCount = Math.log((wordId < getWordCount() ? unigramCounts[wordId] : 0) + added);
+            }
+            return logCount - logVocabularySize;
+        }
+
+        BigramModel getBigramModel() {
+            return bigramModel;
+        }
+
+        int[] getAddedCandidates(String word, int k) {
+            return delta.getCandidates(word, k);
+        }
+    }
+
+    /**
+     * Creates a corpus reader from a compiled model instead of the text
+     * files.
+     */
+    CorpusReader(ModelImage image) {
+        vocabulary = image.vocabulary;
+        extraWords = new ArrayList<>(Arrays.asList(image.extraWords));
+        extraWordIds = new HashMap<>(extraWords.size() * 2);
+        for (int i = 0; i < extraWords.size(); i++) {
+            extraWordIds.put(extraWords.get(i), vocabulary.size() + i);
+        }
+        unigramCounts = image.unigramCounts;
+        bigramCounts = image.bigramCounts;
+        ngrams = image.ngrams;
+        logUnigramCounts = logCounts();
+        logVocabularySize = Math.log(vocabulary.size());
+        BigramModel bigramModel = image.bigramTables == null ? new BigramModel(this, new AddKSmoothing(K))
+                : new BigramModel(this, new AddKSmoothing(K), image.bigramTables);
+        snapshot = new Snapshot(new CorpusDelta(getWordCount()), bigramModel);
     }
 
     private void readNGrams() throws
             FileNotFoundException, IOException, NumberFormatException {
         ngrams = new HashMap<>();
+        bigramCounts = new LongIntHashMap();
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(CNTFILE_LOC)))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                readNGram(line.trim());
+            }
+        }
+    }
 
-        FileInputStream fis;
-        fis = new FileInputStream(CNTFILE_LOC);
-        BufferedReader in = new BufferedReader(new InputStreamReader(fis));
+    private void readNGram(String phrase) throws NumberFormatException {
+        String s1, s2;
+        int j = phrase.indexOf(" ");
 
-        while (in.ready()) {
-            String phrase = in.readLine().trim();
-            String s1, s2;
-            int j = phrase.indexOf(" ");
+        s1 = phrase.substring(0, j);
+        s2 = phrase.substring(j + 1, phrase.length());
 
-            s1 = phrase.substring(0, j);
-            s2 = phrase.substring(j + 1, phrase.length());
+        int count = 0;
+        try {
+            count = Integer.parseInt(s1);
+        } catch (NumberFormatException nfe) {
+            throw new NumberFormatException("NumberformatError: " + s1);
+        }
 
-            int count = 0;
-            try {
-                count = Integer.parseInt(s1);
-                ngrams.put(s2, count);
-            } catch (NumberFormatException nfe) {
-                throw new NumberFormatException("NumberformatError: " + s1);
+        int space = s2.indexOf(' ');
+        if (space < 0) { // unigram
+            int id = internWord(s2); // may grow unigramCounts
+            unigramCounts[id] = count;
+        } else if (s2.indexOf(' ', space + 1) < 0) { // bigram
+            int first = internWord(s2.substring(0, space));
+            int second = internWord(s2.substring(space + 1));
+            bigramCounts.put(LongIntHashMap.pairKey(first, second), count);
+        } else {
+            ngrams.put(s2, count);
+        }
+    }
+
+    /**
+     * Returns the id of word, assigning the next free id if it is neither
+     * in the vocabulary nor has one yet.
+     */
+    private int internWord(String word) {
+        int id = getLoadedWordId(word);
+        if (id < 0) {
+            id = getWordCount();
+            extraWordIds.put(word, id);
+            extraWords.add(word);
+            if (id == unigramCounts.length) {
+                unigramCounts = Arrays.copyOf(unigramCounts, id * 2);
             }
         }
+        return id;
     }
 
     private void readVocabulary() throws FileNotFoundException, IOException {
-        vocabulary = new HashSet<>();
+        Set<String> vocabularyWords = new HashSet<>();
 
-        FileInputStream fis = new FileInputStream(VOCFILE_LOC);
-        BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-
-        while (in.ready()) {
-            String line = in.readLine();
-            vocabulary.add(line);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(VOCFILE_LOC)))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                vocabularyWords.add(line);
+            }
         }
+
+        String[] sorted = vocabularyWords.toArray(new String[0]);
+        Arrays.sort(sorted);
+        vocabulary = new VocabularyAutomaton(sorted);
     }
 
     /**
-     * Calculate frequencies of counts beforehand. Used for Good-Turing
-     * smoothing.
+     * Returns the logarithm of the unigram count of every loaded word
      */
-    private void determineNGramCountFrequencies() {
-        this.nGramCountFrequencies = new HashMap<>();
+    private double[] logCounts() {
+        double[] logCounts = new double[getWordCount()];
+        for (int id = 0; id < logCounts.length; id++) {
+            logCounts[id] = Math.log(unigramCounts[id]);
+        }
+        return logCounts;
+    }
 
-        List<Integer> counts = new ArrayList<>(this.ngrams.values());
-        int i;
-        // For all counts get frequency 
-        for (i = 1; counts.contains(i); i++) {
-            this.nGramCountFrequencies.put(i, Collections.frequency(counts, i));
+    /**
+     * Returns the id of a loaded word, or -1
+     */
+    private int getLoadedWordId(String word) {
+        int id = vocabulary.getWordId(word);
+        if (id < 0) {
+            Integer extra = extraWordIds.get(word);
+            return extra == null ? -1 : extra;
         }
-        this.maxCount = i;
+        return id;
+    }
+
+    private String getLoadedWord(int wordId) {
+        return wordId < vocabulary.size() ? vocabulary.getWord(wordId) : extraWords.get(wordId - vocabulary.size());
+    }
+
+    /**
+     * Selects how the probabilities of word pairs are smoothed, Add-K by
+     * default. All probabilities are computed here, once; lookups cost the
+     * same for every method. Threads already using the reader see either
+     * the old or the new probabilities.
+     */
+    public synchronized void setSmoothing(Smoothing smoothing) {
+        CorpusDelta delta = snapshot.delta;
+        snapshot = new Snapshot(delta, new BigramModel(this, smoothing).withDelta(delta));
+    }
+
+    /**
+     * Returns the smoothed log probabilities of word pairs
+     */
+    public BigramModel getBigramModel() {
+        return snapshot.bigramModel;
+    }
+
+    /**
+     * Returns the current snapshot, to read several things from the same
+     * update
+     */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Adds words to the vocabulary and increases unigram and bigram counts,
+     * e.g. with corrections users accepted. Readers see the reader either
+     * before or after the whole update. Only the counts of the words the
+     * update touches are recomputed; the vocabulary size, the counts of
+     * counts and the bigram totals that getProbability and the smoothing use
+     * stay those of the loaded model, so both share one V and the scores of
+     * untouched words do not move. getVocabularySize does include the added
+     * words.
+     *
+     * @param newWords words to add to the vocabulary; words already in it are
+     * skipped
+     * @param nGramCounts positive counts to add, keyed by "word" or
+     * "first second"; all words must be known or in newWords
+     */
+    public synchronized void update(Collection<String> newWords, Map<String, Integer> nGramCounts) {
+        Snapshot current = snapshot;
+        CorpusDelta delta = current.delta.with(this, newWords, nGramCounts);
+        snapshot = new Snapshot(delta, current.bigramModel.withDelta(delta));
+    }
+
+    /**
+     * Returns whether word is in the vocabulary, including added words
+     */
+    public boolean isInVocabulary(String word) {
+        return snapshot.isInVocabulary(word);
     }
 
     /**
@@ -93,96 +307,273 @@ public class CorpusReader {
         if (nGram == null || nGram.length() == 0) {
             throw new IllegalArgumentException("NGram must be non-empty.");
         }
+        return getNGramCount(snapshot, nGram);
+    }
+
+    private int getNGramCount(Snapshot current, String nGram) {
+        int space = nGram.indexOf(' ');
+        if (space < 0) {
+            return current.getUnigramCount(current.getWordId(nGram));
+        } else if (nGram.indexOf(' ', space + 1) < 0) {
+            return current.getBigramCount(current.getWordId(nGram.substring(0, space)),
+                    current.getWordId(nGram.substring(space + 1)));
+        }
         Integer value = ngrams.get(nGram);
         return value == null ? 0 : value;
     }
 
     /**
-     * Returns vocabulary
+     * Returns the id of word
+     *
+     * @return -1 if word is neither in the corpus nor in the vocabulary
+     */
+    public int getWordId(String word) {
+        return snapshot.getWordId(word);
+    }
+
+    /**
+     * Returns the word with the given id
+     */
+    public String getWord(int wordId) {
+        return snapshot.getWord(wordId);
+    }
+
+    /**
+     * Returns the count of the word with the given id, 0 for unknown words
+     */
+    public int getUnigramCount(int wordId) {
+        return snapshot.getUnigramCount(wordId);
+    }
+
+    /**
+     * Returns the count of the bigram "first second", 0 for unknown words
+     */
+    public int getBigramCount(int firstId, int secondId) {
+        return snapshot.getBigramCount(firstId, secondId);
+    }
+
+    /**
+     * Returns the count of the bigram "first second" in the loaded model
+     */
+    int getLoadedBigramCount(int firstId, int secondId) {
+        if (firstId < 0 || secondId < 0) {
+            return 0;
+        }
+        return bigramCounts.get(LongIntHashMap.pairKey(firstId, secondId), 0);
+    }
+
+    /**
+     * Returns vocabulary, including added words
      *
      * @return vocabulary
      */
     public Set<String> getVocabulary() {
-        return this.vocabulary;
+        String[] added = snapshot.delta.getAddedVocabulary();
+        if (added.length == 0) {
+            return vocabulary.asSet();
+        }
+        Set<String> result = new HashSet<>(vocabulary.asSet());
+        result.addAll(Arrays.asList(added));
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns the symmetric delete index of the loaded vocabulary. Words
+     * added later are found with getAddedCandidates. It is built on the
+     * first call, since only the DELETE_INDEX candidate generation needs it.
+     *
+     * @return candidate index
+     */
+    public SymmetricDeleteIndex getCandidateIndex() {
+        SymmetricDeleteIndex result = candidateIndex;
+        if (result == null) {
+            synchronized (this) {
+                result = candidateIndex;
+                if (result == null) {
+                    result = new SymmetricDeleteIndex(vocabulary);
+                    candidateIndex = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the loaded vocabulary as an automaton, which also finds the
+     * words within any distance of a word. Words added later are found with
+     * getAddedCandidates.
+     */
+    public VocabularyAutomaton getVocabularyAutomaton() {
+        return vocabulary;
+    }
+
+    /**
+     * Returns the ids of the words added to the vocabulary by update that
+     * may be within distance 1 of word. Like the candidate index, it may
+     * return words that are further away.
+     */
+    public int[] getAddedCandidates(String word) {
+        return snapshot.delta.getCandidates(word);
+    }
+
+    /**
+     * Returns the ids of the words added to the vocabulary by update that
+     * may be within distance k of word
+     */
+    public int[] getAddedCandidates(String word, int k) {
+        return snapshot.getAddedCandidates(word, k);
+    }
+
+    /**
+     * Returns the loaded vocabulary grouped by word length. It is built on
+     * the first call, since only the scanning candidate generator needs it.
+     *
+     * @return length-sharded vocabulary
+     */
+    public LengthShardedVocabulary getLengthShardedVocabulary() {
+        LengthShardedVocabulary result = lengthShardedVocabulary;
+        if (result == null) {
+            synchronized (this) {
+                result = lengthShardedVocabulary;
+                if (result == null) {
+                    result = new LengthShardedVocabulary(vocabulary);
+                    lengthShardedVocabulary = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
-     * Returns the size of the number of unique words in the dataset
+     * Returns the trigram probabilities of the loaded trigram counts. It is
+     * built on the first call, since only trigram scoring needs it.
+     *
+     * @return trigram model
+     */
+    public TrigramModel getTrigramModel() {
+        TrigramModel result = trigramModel;
+        if (result == null) {
+            synchronized (this) {
+                result = trigramModel;
+                if (result == null) {
+                    result = new TrigramModel(this);
+                    trigramModel = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    // The model as loaded, without updates, e.g. to compile an image
+
+    Set<String> getLoadedVocabulary() {
+        return vocabulary.asSet();
+    }
+
+    /**
+     * Returns the number of loaded words with an id
+     */
+    int getWordCount() {
+        return vocabulary.size() + extraWords.size();
+    }
+
+    /**
+     * Returns the loaded words outside the vocabulary, in id order from the
+     * vocabulary size on
+     */
+    String[] getExtraWords() {
+        return extraWords.toArray(new String[0]);
+    }
+
+    int[] getUnigramCounts() {
+        return Arrays.copyOf(unigramCounts, getWordCount());
+    }
+
+    LongIntHashMap getBigramCounts() {
+        return bigramCounts;
+    }
+
+    HashMap<String, Integer> getLongerNGrams() {
+        return ngrams;
+    }
+
+    /**
+     * Returns the size of the number of unique words in the dataset,
+     * including words added by update
      *
      * @return the size of the number of unique words in the dataset
      */
     public int getVocabularySize() {
-        return vocabulary.size();
+        return vocabulary.size() + snapshot.delta.getAddedVocabularyCount();
     }
 
     public double getProbability(String nGram) {
-        double count = getNGramCount(nGram);
-        double V = getVocabularySize();
+        if (nGram == null || nGram.length() == 0) {
+            throw new IllegalArgumentException("NGram must be non-empty.");
+        }
+        double count = getNGramCount(snapshot, nGram);
+        double V = vocabulary.size();
         return count / V;
     }
 
     /**
-     * Gets probability of word given next word. Uses Add-K Smoothing only.
+     * Returns the count of the word divided by the size of the loaded
+     * vocabulary. Words added by update count towards getVocabularySize but
+     * not towards this V, which is the one the smoothing uses, so the
+     * probabilities of words an update does not touch stay the same.
+     */
+    public double getProbability(int wordId) {
+        double count = snapshot.getUnigramCount(wordId);
+        double V = vocabulary.size();
+        return count / V;
+    }
+
+    /**
+     * Returns the logarithm of getProbability(wordId). For words whose
+     * count no update changed this takes no Math.log, since the log counts
+     * and the log of the loaded vocabulary size are computed at load.
+     */
+    public double getLogProbability(int wordId) {
+        return snapshot.getLogProbability(wordId);
+    }
+
+    /**
+     * Gets probability of word given next word, smoothed as selected by
+     * setSmoothing.
      */
     public double getProbabilityGivenNext(String word, String nextWord) {
         if (word == null || word.length() == 0 || nextWord == null || nextWord.length() == 0) {
             throw new IllegalArgumentException("NGrams must be non-empty.");
         }
+        Snapshot current = snapshot;
+        return Math.exp(current.bigramModel.logProbabilityGivenNext(current.getWordId(word),
+                current.getWordId(nextWord)));
+    }
 
-        //double countBigram = getGoodTuringSmoothedCount(word + " " + nextWord);
-        // Get bigram count from vocabulary
-        double countBigram = getNGramCount(word + " " + nextWord);
-        // Get next word count
-        int countNextWord = getNGramCount(nextWord);
-        double V = getVocabularySize();
-
-        // Add-K smoothing
-        double probability = (countBigram + K) / (countNextWord + K * V);
-//        double probability = countBigram/ countNextWord;
-
-        return probability;
+    /**
+     * Gets probability of word given next word by their ids
+     */
+    public double getProbabilityGivenNext(int wordId, int nextWordId) {
+        return Math.exp(snapshot.bigramModel.logProbabilityGivenNext(wordId, nextWordId));
     }
 
     /**
-     * Gets probability of word given previous word. Uses Add-K Smoothing only.
+     * Gets probability of word given previous word, smoothed as selected by
+     * setSmoothing.
      */
     public double getProbabiltyGivenPrev(String word, String prevWord) {
         if (word == null || word.length() == 0 || prevWord == null || prevWord.length() == 0) {
             throw new IllegalArgumentException("NGrams must be non-empty.");
         }
-
-        //double countBigram = getGoodTuringSmoothedCount(prevWord + " " + word);
-        // Get bigram count from vocabulary
-        double countBigram = getNGramCount(prevWord + " " + word);
-        // Get previous word count
-        int countPrevWord = getNGramCount(prevWord);
-        double V = getVocabularySize();
-
-        // Add-K smoothing
-        double probability = (countBigram + K) / (countPrevWord + K * V);
-//        double probability = countBigram/ countPrevWord;
-
-        return probability;
+        Snapshot current = snapshot;
+        return Math.exp(current.bigramModel.logProbabilityGivenPrev(current.getWordId(word),
+                current.getWordId(prevWord)));
     }
 
     /**
-     * Good-Turing smoothing. -- NOT USED!
+     * Gets probability of word given previous word by their ids
      */
-    private int getGoodTuringSmoothedCount(String ngram) {
-        int N = this.ngrams.size();
-
-        // If bigram not contained in vocabulary, use frequency for a bigram with count 1
-        if (!this.ngrams.containsKey(ngram) || this.ngrams.get(ngram) == 0) {
-            return this.nGramCountFrequencies.get(1) / N;
-        } else { // For other bigrams with count > 0 use frequency of count + 1
-            int c = this.ngrams.get(ngram);
-            if (c < this.maxCount) { // For some high bigram counts there is no frequency for count + 1
-                return (c + 1) * (this.nGramCountFrequencies.get(c + 1)
-                        / (this.nGramCountFrequencies.get(c) * N));
-            } else { // use normal probability
-                return c / N;
-            }
-        }
+    public double getProbabiltyGivenPrev(int wordId, int prevWordId) {
+        return Math.exp(snapshot.bigramModel.logProbabilityGivenPrev(wordId, prevWordId));
     }
-
 }
@@ -0,0 +1,295 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency and size statistics of phrase corrections, published as the MBean
+ * spellchecker:type=CorrectionMetrics. Recording is off unless the system
+ * property spellchecker.metrics is true or setEnabled(true) is called; when
+ * off, the correction code only reads one volatile flag.
+ *
+ * The same numbers are also emitted per phrase as JFR events, see
+ * FlightEvents, whenever a JFR recording has them enabled.
+ */
+public class CorrectionMetrics implements CorrectionMetricsMBean {
+
+    final static String OBJECT_NAME = "spellchecker:type=CorrectionMetrics";
+
+    final private static CorrectionMetrics INSTANCE = new CorrectionMetrics();
+    private static volatile boolean enabled;
+    private static boolean registered;
+
+    final private LogHistogram totalNanos = new LogHistogram();
+    final private LogHistogram candidateGenerationNanos = new LogHistogram();
+    final private LogHistogram decodingNanos = new LogHistogram();
+    final private LogHistogram candidatesPerWord = new LogHistogram();
+    final private LogHistogram transitionsScored = new LogHistogram();
+    private volatile long modelLoadNanos;
+
+    // Fast path counters, see SpellCorrector.setFastPath
+    final private LongAdder phrasesChecked = new LongAdder();
+    final private LongAdder phrasesSkipped = new LongAdder(); // no word needed the candidate search
+    final private LongAdder positionsChecked = new LongAdder();
+    final private LongAdder positionsSearched = new LongAdder();
+
+    // Candidate pruning counters, see SpellCorrector.setCandidatePruning
+    final private LongAdder candidatesBeforePruning = new LongAdder();
+    final private LongAdder candidatesAfterPruning = new LongAdder();
+
+    // Deadline counters, see SpellCorrector.correctPhrase(String, long, TimeUnit)
+    final private LongAdder phrasesWithDeadline = new LongAdder();
+    final private LongAdder deadlinesExpired = new LongAdder();
+
+    static {
+        if (Boolean.getBoolean("spellchecker.metrics")) {
+            INSTANCE.setEnabled(true);
+        }
+    }
+
+    private CorrectionMetrics() {
+    }
+
+    public static CorrectionMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns whether statistics are being recorded
+     */
+    public static boolean isRecording() {
+        return enabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns recording on or off. Turning it on the first time registers the
+     * MBean with the platform MBean server.
+     */
+    @Override
+    public void setEnabled(boolean enable) {
+        synchronized (CorrectionMetrics.class) {
+            if (enable && !registered) {
+                registerMBean();
+                registered = true;
+            }
+            enabled = enable;
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(CorrectionMetrics.class.getName()).log(Level.WARNING, "Cannot register metrics MBean", ex);
+        }
+    }
+
+    /**
+     * Records the statistics of one corrected phrase.
+     *
+     * @param candidates candidates for each word of the phrase
+     * @param candidateGeneration time spent finding the candidates
+     * @param decoding time spent finding the best phrase
+     * @param transitions number of word pairs the decoder scored
+     */
+    void recordPhrase(String[][] candidates, long candidateGeneration, long decoding, long transitions) {
+        for (String[] wordCandidates : candidates) {
+            candidatesPerWord.record(wordCandidates.length);
+        }
+        candidateGenerationNanos.record(candidateGeneration);
+        decodingNanos.record(decoding);
+        totalNanos.record(candidateGeneration + decoding);
+        transitionsScored.record(transitions);
+    }
+
+    /**
+     * Records the outcome of the plausibility check of one phrase or window
+     *
+     * @param words number of words checked
+     * @param searched number of words that got the candidate search
+     */
+    void recordPlausibilityCheck(int words, int searched) {
+        phrasesChecked.increment();
+        if (searched == 0) {
+            phrasesSkipped.increment();
+        }
+        positionsChecked.add(words);
+        positionsSearched.add(searched);
+    }
+
+    /**
+     * Records the candidates of one phrase before and after pruning
+     */
+    void recordPruning(String[][] before, String[][] after) {
+        for (int i = 0; i < before.length; i++) {
+            candidatesBeforePruning.add(before[i].length);
+            candidatesAfterPruning.add(after[i].length);
+        }
+    }
+
+    /**
+     * Records whether a search with a deadline finished in time
+     */
+    void recordDeadline(boolean complete) {
+        phrasesWithDeadline.increment();
+        if (!complete) {
+            deadlinesExpired.increment();
+        }
+    }
+
+    void recordModelLoad(long nanos) {
+        modelLoadNanos = nanos;
+    }
+
+    private static double micros(double nanos) {
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getPhrasesCorrected() {
+        return totalNanos.getCount();
+    }
+
+    @Override
+    public double getTotalMeanMicros() {
+        return micros(totalNanos.getMean());
+    }
+
+    @Override
+    public double getTotalP50Micros() {
+        return micros(totalNanos.getPercentile(50));
+    }
+
+    @Override
+    public double getTotalP99Micros() {
+        return micros(totalNanos.getPercentile(99));
+    }
+
+    @Override
+    public double getTotalMaxMicros() {
+        return micros(totalNanos.getMax());
+    }
+
+    @Override
+    public double getCandidateGenerationMeanMicros() {
+        return micros(candidateGenerationNanos.getMean());
+    }
+
+    @Override
+    public double getCandidateGenerationP99Micros() {
+        return micros(candidateGenerationNanos.getPercentile(99));
+    }
+
+    @Override
+    public double getDecodingMeanMicros() {
+        return micros(decodingNanos.getMean());
+    }
+
+    @Override
+    public double getDecodingP99Micros() {
+        return micros(decodingNanos.getPercentile(99));
+    }
+
+    @Override
+    public double getCandidatesPerWordMean() {
+        return candidatesPerWord.getMean();
+    }
+
+    @Override
+    public long getCandidatesPerWordMax() {
+        return candidatesPerWord.getMax();
+    }
+
+    @Override
+    public double getTransitionsScoredPerPhraseMean() {
+        return transitionsScored.getMean();
+    }
+
+    @Override
+    public long getTransitionsScoredPerPhraseMax() {
+        return transitionsScored.getMax();
+    }
+
+    @Override
+    public long getFastPathPhrasesChecked() {
+        return phrasesChecked.sum();
+    }
+
+    @Override
+    public long getFastPathPhrasesSkipped() {
+        return phrasesSkipped.sum();
+    }
+
+    @Override
+    public double getFastPathSearchedFraction() {
+        long checked = positionsChecked.sum();
+        return checked == 0 ? 0 : (double) positionsSearched.sum() / checked;
+    }
+
+    @Override
+    public double getPruningKeptFraction() {
+        long before = candidatesBeforePruning.sum();
+        return before == 0 ? 1 : (double) candidatesAfterPruning.sum() / before;
+    }
+
+    @Override
+    public long getDeadlinePhrases() {
+        return phrasesWithDeadline.sum();
+    }
+
+    @Override
+    public long getDeadlinesExpired() {
+        return deadlinesExpired.sum();
+    }
+
+    @Override
+    public double getModelLoadMillis() {
+        return modelLoadNanos / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        totalNanos.reset();
+        candidateGenerationNanos.reset();
+        decodingNanos.reset();
+        candidatesPerWord.reset();
+        transitionsScored.reset();
+        phrasesChecked.reset();
+        phrasesSkipped.reset();
+        positionsChecked.reset();
+        positionsSearched.reset();
+        candidatesBeforePruning.reset();
+        candidatesAfterPruning.reset();
+        phrasesWithDeadline.reset();
+        deadlinesExpired.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("phrases=%d total(mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus)"
+                + " candidates(mean=%.1fus p99=%.1fus) decoding(mean=%.1fus p99=%.1fus)"
+                + " candidatesPerWord(mean=%.1f max=%d) transitionsPerPhrase(mean=%.1f max=%d)"
+                + " fastPath(checked=%d skipped=%d searched=%.2f) pruningKept=%.2f"
+                + " deadline(phrases=%d expired=%d) load=%.1fms",
+                getPhrasesCorrected(), getTotalMeanMicros(), getTotalP50Micros(), getTotalP99Micros(),
+                getTotalMaxMicros(), getCandidateGenerationMeanMicros(), getCandidateGenerationP99Micros(),
+                getDecodingMeanMicros(), getDecodingP99Micros(), getCandidatesPerWordMean(),
+                getCandidatesPerWordMax(), getTransitionsScoredPerPhraseMean(),
+                getTransitionsScoredPerPhraseMax(), getFastPathPhrasesChecked(), getFastPathPhrasesSkipped(),
+                getFastPathSearchedFraction(), getPruningKeptFraction(), getDeadlinePhrases(), getDeadlinesExpired(),
+                getModelLoadMillis());
+    }
+}
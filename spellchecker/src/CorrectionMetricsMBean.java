@@ -0,0 +1,72 @@
+
+/**
+ * JMX view of CorrectionMetrics. Latencies are in microseconds.
+ */
+public interface CorrectionMetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getPhrasesCorrected();
+
+    double getTotalMeanMicros();
+
+    double getTotalP50Micros();
+
+    double getTotalP99Micros();
+
+    double getTotalMaxMicros();
+
+    double getCandidateGenerationMeanMicros();
+
+    double getCandidateGenerationP99Micros();
+
+    double getDecodingMeanMicros();
+
+    double getDecodingP99Micros();
+
+    double getCandidatesPerWordMean();
+
+    long getCandidatesPerWordMax();
+
+    double getTransitionsScoredPerPhraseMean();
+
+    long getTransitionsScoredPerPhraseMax();
+
+    /**
+     * Phrases and document windows the fast path checked
+     */
+    long getFastPathPhrasesChecked();
+
+    /**
+     * Checked phrases in which every word was plausible, so nothing was
+     * searched
+     */
+    long getFastPathPhrasesSkipped();
+
+    /**
+     * Fraction of the checked words that got the candidate search
+     */
+    double getFastPathSearchedFraction();
+
+    /**
+     * Fraction of the candidates that candidate pruning kept, 1 without
+     * pruning
+     */
+    double getPruningKeptFraction();
+
+    /**
+     * Phrases corrected with a deadline
+     */
+    long getDeadlinePhrases();
+
+    /**
+     * Phrases with a deadline whose search was cut short
+     */
+    long getDeadlinesExpired();
+
+    double getModelLoadMillis();
+
+    void reset();
+}
@@ -0,0 +1,32 @@
+
+/**
+ * The answer of a correction with a deadline: the best phrase found before
+ * the deadline and whether the search finished. A finished search gives the
+ * phrase correctPhrase gives without a deadline.
+ */
+public class CorrectionResult {
+
+    final private String phrase;
+    final private boolean complete;
+
+    public CorrectionResult(String phrase, boolean complete) {
+        this.phrase = phrase;
+        this.complete = complete;
+    }
+
+    public String getPhrase() {
+        return phrase;
+    }
+
+    /**
+     * Returns whether the search finished before the deadline
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return complete ? phrase : phrase + " (incomplete)";
+    }
+}
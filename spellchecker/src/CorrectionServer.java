@@ -0,0 +1,155 @@
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP server that keeps one model loaded and corrects phrases on request.
+ *
+ * POST /correct with one phrase per line in the body returns the corrected
+ * phrases, one per line and in the same order. A client can send many
+ * phrases in one request and reuse its connection for further requests.
+ * Requests are handled concurrently on the given executor, all sharing one
+ * SpellCorrector. Bodies over MAX_BODY_BYTES are refused with 413, so one
+ * request cannot fill the heap.
+ */
+public class CorrectionServer {
+
+    final static String PATH = "/correct";
+    final static int MAX_BODY_BYTES = 1 << 20; // largest request body accepted
+
+    final private SpellCorrector sc;
+    final private HttpServer server;
+    final private ExecutorService executor;
+
+    /**
+     * @param sc corrector shared by all requests
+     * @param address address to listen on
+     * @param executor executor that handles the requests
+     */
+    public CorrectionServer(SpellCorrector sc, InetSocketAddress address, ExecutorService executor) throws IOException {
+        this.sc = sc;
+        this.executor = executor;
+        this.server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Creates a server on port of the loopback interface with a fixed pool of
+     * threads.
+     */
+    public CorrectionServer(SpellCorrector sc, int port, int threads) throws IOException {
+        this(sc, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Executors.newFixedThreadPool(threads));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits at most delaySeconds for the running
+     * ones and shuts down the executor.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] request = readBody(exchange);
+            if (request == null) {
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(request), StandardCharsets.UTF_8));
+                    Writer out = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    out.write(correct(line));
+                    out.write('\n');
+                }
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the request body, or null if it is longer than MAX_BODY_BYTES.
+     * A declared Content-Length over the limit is refused before reading.
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (length != null && Long.parseLong(length.trim()) > MAX_BODY_BYTES) {
+                return null;
+            }
+        } catch (NumberFormatException ex) {
+            // Let the bytes read decide
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    return null;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Returns the correction of phrase, or phrase itself if it cannot be
+     * corrected, e.g. because it is empty.
+     */
+    private String correct(String phrase) {
+        if (phrase.isEmpty()) {
+            return phrase;
+        }
+        try {
+            return sc.correctPhrase(phrase);
+        } catch (RuntimeException ex) {
+            Logger.getLogger(CorrectionServer.class.getName()).log(Level.WARNING, "Cannot correct <" + phrase + ">", ex);
+            return phrase;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+
+/**
+ * Restricted Damerau-Levenshtein (optimal string alignment) distance, the
+ * distance used throughout the spell checker: insertions, deletions,
+ * substitutions and transpositions of two neighbouring characters all cost 1.
+ */
+public class DamerauLevenshtein {
+
+    final static int MAX_BIT_PARALLEL_LENGTH = 64; // bits in a long
+    final private static int ASCII = 128;
+
+    /**
+     * Buffers reused by every call on the same thread, so the bounded check
+     * allocates nothing once they are warm.
+     */
+    private static class Workspace {
+
+        final long[] peq = new long[ASCII]; // match masks of the pattern, all zero between calls
+        char[] first = new char[0];
+        char[] second = new char[0];
+        int[] rowBefore = new int[0];
+        int[] row = new int[0];
+        int[] nextRow = new int[0];
+        int[] table = new int[0];
+
+        void ensureCapacity(int length) {
+            if (row.length < length) {
+                rowBefore = new int[length];
+                row = new int[length];
+                nextRow = new int[length];
+            }
+        }
+
+        void ensureTableCapacity(int size) {
+            if (table.length < size) {
+                table = new int[size];
+            }
+        }
+
+        void ensureCharCapacity(int length) {
+            if (first.length < length) {
+                first = new char[length];
+                second = new char[length];
+            }
+        }
+    }
+
+    final private static ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private DamerauLevenshtein() {
+    }
+
+    /**
+     * Returns the Damerau-Levenshtein distance between strings a and b. Makes
+     * use of the dynamic programming algorithm.
+     */
+    public static int distance(String a, String b) {
+        // Stop if a or b is empty
+        if (a.length() == 0) {
+            return b.length();
+        }
+        if (b.length() == 0) {
+            return a.length();
+        }
+
+        // Initialize matrix
+        int[][] m = new int[b.length() + 1][a.length() + 1];
+
+        // Fill in initial values
+        for (int i = 0; i <= b.length(); i++) {
+            m[i][0] = i;
+        }
+        for (int j = 0; j <= a.length(); j++) {
+            m[0][j] = j;
+        }
+
+        // Fill in the rest of matrix
+        for (int i = 1; i <= b.length(); i++) {
+            for (int j = 1; j <= a.length(); j++) {
+                if (b.charAt(i - 1) == a.charAt(j - 1)) { // if characters are equal
+                    m[i][j] = m[i - 1][j - 1]; // no cost
+                } else if (i > 1 && j > 1 && // check if transposition is allowed
+                        b.charAt(i - 1) == a.charAt(j - 2) &&
+                        b.charAt(i - 2) == a.charAt(j - 1)) {
+                    m[i][j] = Math.min(m[i][j - 1] + 1,         // insertion
+                              Math.min(m[i - 1][j] + 1,         // deletion
+                              Math.min(m[i - 1][j - 1] + 1,     // substitution
+                                       m[i - 2][j - 2] + 1)));  // transposition
+                } else {
+                    m[i][j] = Math.min(m[i][j - 1] + 1,         // insertion
+                              Math.min(m[i - 1][j] + 1,         // deletion
+                                       m[i - 1][j - 1] + 1));   // substitution
+                }
+            }
+        }
+
+        return m[b.length()][a.length()]; // return DL distance for a and b
+    }
+
+    /**
+     * Returns the edits that turn intended into typed, or null if there are
+     * more than k. No edits means the words are equal. Of the alignments
+     * with the fewest edits, the one that keeps the longest common prefix is
+     * chosen, so an extra "d" in "friendd" is the last one, "dd|d".
+     *
+     * The table is filled from the ends of the words towards their starts,
+     * so that the edits can be read off from the start while following the
+     * cheapest cells. Stops as soon as a row shows the distance exceeds k.
+     */
+    public static Edit[] align(String typed, String intended, int k) {
+        int lt = typed.length();
+        int li = intended.length();
+        if (k < 0 || Math.abs(lt - li) > k) {
+            return null;
+        }
+        Workspace workspace = WORKSPACE.get();
+        int width = li + 1;
+        workspace.ensureTableCapacity((lt + 1) * width);
+        int[] d = workspace.table; // d[t * width + i]: distance of typed[t..] and intended[i..]
+
+        for (int i = 0; i <= li; i++) {
+            d[lt * width + i] = li - i;
+        }
+        for (int t = lt - 1; t >= 0; t--) {
+            int row = t * width;
+            d[row + li] = lt - t;
+            int rowMin = d[row + li];
+            char tc = typed.charAt(t);
+            for (int i = li - 1; i >= 0; i--) {
+                char ic = intended.charAt(i);
+                int value = Math.min(d[row + width + i + 1] + (tc == ic ? 0 : 1),
+                        Math.min(d[row + width + i] + 1, d[row + i + 1] + 1));
+                if (t + 1 < lt && i + 1 < li && tc == intended.charAt(i + 1) && typed.charAt(t + 1) == ic) {
+                    value = Math.min(value, d[row + 2 * width + i + 2] + 1); // transposition
+                }
+                d[row + i] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            // Every earlier row is at least the minimum of this one
+            if (rowMin > k) {
+                return null;
+            }
+        }
+        int distance = d[0];
+        if (distance > k) {
+            return null;
+        }
+
+        // Follow the cheapest cells from the start, preferring matches
+        Edit[] edits = new Edit[distance];
+        int count = 0;
+        int t = 0;
+        int i = 0;
+        while (t < lt || i < li) {
+            int here = d[t * width + i];
+            char before = t == 0 ? ' ' : typed.charAt(t - 1);
+            if (t < lt && i < li && typed.charAt(t) == intended.charAt(i) && here == d[(t + 1) * width + i + 1]) {
+                t++;
+                i++;
+            } else if (t + 1 < lt && i + 1 < li && typed.charAt(t) == intended.charAt(i + 1)
+                    && typed.charAt(t + 1) == intended.charAt(i) && here == d[(t + 2) * width + i + 2] + 1) {
+                edits[count++] = new Edit(ConfusionMatrixReader.TRANSPOSITION, typed.charAt(t), typed.charAt(t + 1), t);
+                t += 2;
+                i += 2;
+            } else if (t < lt && i < li && here == d[(t + 1) * width + i + 1] + 1) {
+                edits[count++] = new Edit(ConfusionMatrixReader.SUBSTITUTION, typed.charAt(t), intended.charAt(i), t);
+                t++;
+                i++;
+            } else if (t < lt && here == d[(t + 1) * width + i] + 1) {
+                edits[count++] = new Edit(ConfusionMatrixReader.DELETION, before, typed.charAt(t), t);
+                t++;
+            } else {
+                edits[count++] = new Edit(ConfusionMatrixReader.INSERTION, before, intended.charAt(i), t);
+                i++;
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Returns whether the Damerau-Levenshtein distance between a and b is at
+     * most k. Stops as soon as the distance is known to exceed k. Words of at
+     * most 64 characters are compared bit-parallel, longer words with a
+     * banded dynamic programming table.
+     */
+    public static boolean withinDistance(String a, String b, int k) {
+        if (k < 0 || Math.abs(a.length() - b.length()) > k) {
+            return false;
+        }
+        Workspace workspace = WORKSPACE.get();
+        workspace.ensureCharCapacity(Math.max(a.length(), b.length()));
+        a.getChars(0, a.length(), workspace.first, 0);
+        b.getChars(0, b.length(), workspace.second, 0);
+        return withinDistance(workspace.first, 0, a.length(), workspace.second, 0, b.length(), k, workspace);
+    }
+
+    /**
+     * Returns whether the Damerau-Levenshtein distance between the character
+     * ranges a[aFrom, aFrom + aLength) and b[bFrom, bFrom + bLength) is at
+     * most k, see withinDistance(String, String, int). Lets words stored
+     * back to back in one array be compared without creating strings.
+     */
+    public static boolean withinDistance(char[] a, int aFrom, int aLength, char[] b, int bFrom, int bLength, int k) {
+        if (k < 0 || Math.abs(aLength - bLength) > k) {
+            return false;
+        }
+        return withinDistance(a, aFrom, aLength, b, bFrom, bLength, k, WORKSPACE.get());
+    }
+
+    private static boolean withinDistance(char[] a, int aFrom, int aLength, char[] b, int bFrom, int bLength,
+            int k, Workspace workspace) {
+        // Use the shorter word as pattern so it fits in as few bits as possible
+        if (aLength > bLength) {
+            return withinDistance(b, bFrom, bLength, a, aFrom, aLength, k, workspace);
+        }
+        if (aLength == 0) {
+            return bLength <= k;
+        }
+
+        if (aLength <= MAX_BIT_PARALLEL_LENGTH) {
+            return withinDistanceBitParallel(a, aFrom, aLength, b, bFrom, bLength, k, workspace.peq);
+        }
+        return withinDistanceBanded(a, aFrom, aLength, b, bFrom, bLength, k, workspace);
+    }
+
+    /**
+     * Hyyrö's bit-parallel algorithm for the restricted Damerau-Levenshtein
+     * distance. Bit i of the vertical delta vectors describes row i + 1 of
+     * the dynamic programming column of the current text character; score
+     * holds the value in the last row.
+     */
+    private static boolean withinDistanceBitParallel(char[] pattern, int pFrom, int m, char[] text, int tFrom, int n,
+            int k, long[] peq) {
+        // Build the match mask for every pattern character
+        for (int i = 0; i < m; i++) {
+            char c = pattern[pFrom + i];
+            if (c < ASCII) {
+                peq[c] |= 1L << i;
+            }
+        }
+
+        long last = 1L << (m - 1);
+        long vp = m == MAX_BIT_PARALLEL_LENGTH ? -1L : (1L << m) - 1; // column 0 increases by 1 per row
+        long vn = 0;
+        long d0 = 0;
+        long pmBefore = 0;
+        int score = m;
+        boolean within = true;
+
+        for (int j = 0; j < n; j++) {
+            long pm = matchMask(peq, pattern, pFrom, m, text[tFrom + j]);
+            // Diagonal zero deltas, including those reached by a transposition
+            d0 = ((((~d0) & pm) << 1) & pmBefore) | (((pm & vp) + vp) ^ vp) | pm | vn;
+            long hp = vn | ~(d0 | vp);
+            long hn = vp & d0;
+            if ((hp & last) != 0) {
+                score++;
+            } else if ((hn & last) != 0) {
+                score--;
+            }
+            // Row 0 increases by 1 per column, so shift in a positive delta
+            hp = (hp << 1) | 1;
+            hn = hn << 1;
+            vp = hn | ~(d0 | hp);
+            vn = d0 & hp;
+            pmBefore = pm;
+
+            // The last row decreases by at most 1 per remaining character
+            if (score - (n - 1 - j) > k) {
+                within = false;
+                break;
+            }
+        }
+
+        // Leave the masks empty for the next call
+        for (int i = 0; i < m; i++) {
+            char c = pattern[pFrom + i];
+            if (c < ASCII) {
+                peq[c] = 0;
+            }
+        }
+
+        return within && score <= k;
+    }
+
+    private static long matchMask(long[] peq, char[] pattern, int pFrom, int m, char c) {
+        if (c < ASCII) {
+            return peq[c];
+        }
+        // Characters outside the table are rare, so find them in the pattern
+        long mask = 0;
+        for (int i = 0; i < m; i++) {
+            if (pattern[pFrom + i] == c) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Dynamic programming restricted to the diagonal band of width k, using
+     * three reusable rows. Cells outside the band are capped at k + 1.
+     */
+    private static boolean withinDistanceBanded(char[] a, int aFrom, int la, char[] b, int bFrom, int lb,
+            int k, Workspace workspace) {
+        int cap = k + 1;
+        workspace.ensureCapacity(la + 2);
+        int[] rowBefore = workspace.rowBefore;
+        int[] row = workspace.row;
+        int[] nextRow = workspace.nextRow;
+
+        for (int j = 0; j <= la; j++) {
+            row[j] = Math.min(j, cap);
+        }
+        row[la + 1] = cap;
+
+        for (int i = 1; i <= lb; i++) {
+            int from = Math.max(1, i - k);
+            int to = Math.min(la, i + k);
+            nextRow[0] = Math.min(i, cap);
+            nextRow[from - 1] = from == 1 ? nextRow[0] : cap;
+            int rowMin = from == 1 ? nextRow[0] : cap;
+            char bi = b[bFrom + i - 1];
+
+            for (int j = from; j <= to; j++) {
+                int cost = bi == a[aFrom + j - 1] ? 0 : 1;
+                int value = Math.min(row[j - 1] + cost, Math.min(row[j] + 1, nextRow[j - 1] + 1));
+                if (i > 1 && j > 1
+                        && bi == a[aFrom + j - 2]
+                        && b[bFrom + i - 2] == a[aFrom + j - 1]) {
+                    value = Math.min(value, rowBefore[j - 2] + 1); // transposition
+                }
+                nextRow[j] = Math.min(value, cap);
+                rowMin = Math.min(rowMin, nextRow[j]);
+            }
+            if (to < la) {
+                nextRow[to + 1] = cap;
+            }
+
+            // Every later row is at least the minimum of this one
+            if (rowMin > k) {
+                return false;
+            }
+
+            int[] oldest = rowBefore;
+            rowBefore = row;
+            row = nextRow;
+            nextRow = oldest;
+        }
+
+        return row[la] <= k;
+    }
+}
@@ -0,0 +1,260 @@
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Corrects running text of any length in one pass. The text is split into
+ * words (runs of letters, digits and inner apostrophes) and the separators
+ * between them, which are written out unchanged. Words are corrected in
+ * windows of a fixed number of words: the first half of a window is written
+ * and the second half is decoded again with the next words, with the last
+ * written word as context. A sentence end (. ! ?) or a long separator
+ * closes the window. Only a window is kept in memory, so memory use does
+ * not depend on the size of the document.
+ *
+ * Words are looked up in lower case and corrections get the case of the
+ * original word: all lower case, capitalized or all upper case. Words in
+ * any other case, with digits or with apostrophes are never corrected.
+ * SpellCorrector.getMaxCorrections applies per window.
+ */
+public class DocumentCorrector {
+
+    final static int DEFAULT_WINDOW = 8; // words per window
+    final static int MAX_TOKEN_LENGTH = 256; // longer words are written as they are, longer separators close the window
+
+    final private SpellCorrector sc;
+    final private int window;
+
+    public DocumentCorrector(SpellCorrector sc) {
+        this(sc, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of words decoded together, at least 2
+     */
+    public DocumentCorrector(SpellCorrector sc, int window) {
+        if (window < 2) {
+            throw new IllegalArgumentException("Window must hold at least 2 words.");
+        }
+        this.sc = sc;
+        this.window = window;
+    }
+
+    /**
+     * Reads UTF-8 text from in until the end of the stream and writes the
+     * corrected text to out. Neither stream is closed.
+     */
+    public void correct(InputStream in, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        correct(new InputStreamReader(in, StandardCharsets.UTF_8), writer);
+        writer.flush();
+    }
+
+    /**
+     * Reads text from in until the end of the stream and writes the
+     * corrected text to out. Neither is closed or flushed.
+     */
+    public void correct(Reader in, Writer out) throws IOException {
+        Reader reader = in instanceof BufferedReader ? in : new BufferedReader(in);
+        new Pass(out).run(reader);
+    }
+
+    /**
+     * A word waiting to be written, with the separator that follows it
+     */
+    private static class Pending {
+
+        final String text;
+        final String lowerCase;
+        final boolean locked;
+        final StringBuilder separator = new StringBuilder();
+
+        Pending(String text) {
+            this.text = text;
+            this.lowerCase = text.toLowerCase(Locale.ROOT);
+            this.locked = caseOf(text) == Case.OTHER || !lowerCase.chars().allMatch(Character::isLetter);
+        }
+    }
+
+    private enum Case {
+        LOWER, CAPITALIZED, UPPER, OTHER
+    }
+
+    private static Case caseOf(String word) {
+        boolean restLower = true;
+        boolean restUpper = true;
+        for (int i = 1; i < word.length(); i++) {
+            char c = word.charAt(i);
+            restLower &= !Character.isUpperCase(c);
+            restUpper &= !Character.isLowerCase(c);
+        }
+        boolean firstUpper = Character.isUpperCase(word.charAt(0));
+        if (!firstUpper && restLower) {
+            return Case.LOWER;
+        } else if (firstUpper && restLower) {
+            return Case.CAPITALIZED;
+        } else if (firstUpper && restUpper) {
+            return Case.UPPER;
+        }
+        return Case.OTHER;
+    }
+
+    /**
+     * Returns correction written in the case of original
+     */
+    private static String withCaseOf(String original, String correction) {
+        if (correction.equals(original.toLowerCase(Locale.ROOT))) {
+            return original;
+        }
+        switch (caseOf(original)) {
+            case UPPER:
+                // A single capital is taken as a capitalized word
+                return original.length() > 1 ? correction.toUpperCase(Locale.ROOT) : capitalize(correction);
+            case CAPITALIZED:
+                return capitalize(correction);
+            default:
+                return correction;
+        }
+    }
+
+    private static String capitalize(String word) {
+        return word.isEmpty() ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static boolean isWordChar(int c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isSentenceEnd(int c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+
+    /**
+     * State of one call of correct
+     */
+    private class Pass {
+
+        final private Writer out;
+        final private ArrayList<Pending> pending = new ArrayList<>(window);
+        private String context; // last written word in lower case, null at the start of a sentence
+
+        Pass(Writer out) {
+            this.out = out;
+        }
+
+        void run(Reader in) throws IOException {
+            StringBuilder word = new StringBuilder();
+            boolean overlong = false; // in a word too long to correct, which is written as it is read
+            int c = in.read();
+            while (c >= 0) {
+                if (isWordChar(c)) {
+                    if (overlong) {
+                        out.write(c);
+                    } else {
+                        word.append((char) c);
+                        if (word.length() > MAX_TOKEN_LENGTH) {
+                            flush(pending.size());
+                            out.append(word);
+                            word.setLength(0);
+                            overlong = true;
+                            context = null;
+                        }
+                    }
+                    c = in.read();
+                    // An apostrophe belongs to the word if a letter or digit follows it
+                    if (c == '\'') {
+                        int next = in.read();
+                        if (isWordChar(next)) {
+                            if (overlong) {
+                                out.write('\'');
+                            } else {
+                                word.append('\'');
+                            }
+                        } else {
+                            overlong = false;
+                            addWord(word);
+                            addSeparator('\'');
+                        }
+                        c = next;
+                    }
+                } else {
+                    overlong = false;
+                    addWord(word);
+                    addSeparator((char) c);
+                    c = in.read();
+                }
+            }
+            addWord(word);
+            flush(pending.size());
+        }
+
+        private void addWord(StringBuilder word) throws IOException {
+            if (word.length() == 0) {
+                return;
+            }
+            if (pending.size() == window) {
+                flush(window / 2);
+            }
+            pending.add(new Pending(word.toString()));
+            word.setLength(0);
+        }
+
+        private void addSeparator(char c) throws IOException {
+            if (pending.isEmpty()) {
+                out.write(c);
+                if (isSentenceEnd(c)) {
+                    context = null;
+                }
+                return;
+            }
+            StringBuilder separator = pending.get(pending.size() - 1).separator;
+            separator.append(c);
+            if (isSentenceEnd(c) || separator.length() > MAX_TOKEN_LENGTH) {
+                flush(pending.size());
+                if (isSentenceEnd(c)) {
+                    context = null;
+                }
+            }
+        }
+
+        /**
+         * Corrects the pending words and writes the first count of them
+         */
+        private void flush(int count) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int offset = context == null ? 0 : 1;
+            String[] words = new String[pending.size() + offset];
+            boolean[] locked = new boolean[words.length];
+            if (context != null) {
+                words[0] = context;
+                locked[0] = true;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                Pending p = pending.get(i);
+                words[i + offset] = p.lowerCase;
+                locked[i + offset] = p.locked;
+            }
+
+            String[] corrected = sc.correctWords(words, locked);
+            for (int i = 0; i < count; i++) {
+                Pending p = pending.get(i);
+                out.write(p.locked ? p.text : withCaseOf(p.text, corrected[i + offset]));
+                out.append(p.separator);
+            }
+            context = corrected[count - 1 + offset];
+            pending.subList(0, count).clear();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+
+/**
+ * One edit of the confusion matrix that turns a correct word into the word
+ * that was typed, as found by DamerauLevenshtein.align. Characters x and y
+ * are in the order they appear in the typed word, as
+ * ConfusionMatrixReader.getCorrectionCode(int, char, char) takes them:
+ *
+ * SUBSTITUTION x|y, x was typed for y
+ * DELETION xy|x, y was typed by mistake after x
+ * INSERTION x|xy, y was left out after x
+ * TRANSPOSITION xy|yx
+ *
+ * For a deletion or insertion at the start of the word x is a space.
+ */
+public class Edit {
+
+    final int kind;
+    final char x;
+    final char y;
+    final int position; // in the typed word: the edited character, or where the left out one belongs
+
+    Edit(int kind, char x, char y, int position) {
+        this.kind = kind;
+        this.x = x;
+        this.y = y;
+        this.position = position;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the key of the edit in the confusion matrix, e.g. "ng|n"
+     */
+    public String getKey() {
+        switch (kind) {
+            case ConfusionMatrixReader.SUBSTITUTION:
+                return x + "|" + y;
+            case ConfusionMatrixReader.DELETION:
+                return "" + x + y + "|" + x;
+            case ConfusionMatrixReader.INSERTION:
+                return x + "|" + x + y;
+            default:
+                return "" + x + y + "|" + y + x;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getKey() + "@" + position;
+    }
+}
@@ -0,0 +1,77 @@
+
+/**
+ * JFR events of the spell checker, behind a class that needs no JFR. This
+ * class records nothing; get() returns JfrFlightEvents from jfr/ instead if
+ * it was compiled, which the build does when the JDK has jdk.jfr, and the
+ * runtime has JFR too, e.g. Java 8 from update 272 or Java 11 and later. So
+ * the rest of the program builds and runs on any Java 8.
+ */
+public class FlightEvents {
+
+    private static volatile FlightEvents instance;
+
+    /**
+     * One call of SpellCorrector.correctPhrase, begun when it was created
+     */
+    public interface PhraseCorrection {
+
+        /**
+         * Returns whether the recording wants this event, e.g. it lasted
+         * longer than its threshold
+         */
+        boolean shouldCommit();
+
+        /**
+         * Ends the event and records it with the given numbers
+         */
+        void commit(int words, int positionsSearched, int candidates, long transitionsScored,
+                long candidateGeneration, long decoding);
+    }
+
+    /**
+     * One model load, begun when it was created
+     */
+    public interface ModelLoad {
+
+        /**
+         * Ends the event and records it
+         *
+         * @param source "image" or "text"
+         */
+        void commit(String source);
+    }
+
+    /**
+     * Returns the events of this JVM: recording ones if JFR can be used
+     */
+    public static FlightEvents get() {
+        FlightEvents result = instance;
+        if (result == null) {
+            result = new FlightEvents();
+            try {
+                result = (FlightEvents) Class.forName("JfrFlightEvents").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // Not compiled or no JFR in this runtime
+            }
+            instance = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a begun phrase correction event, or null if no recording has
+     * it enabled. Creating the first event starts up JFR, which takes far
+     * longer than loading the model, so none is created unless JFR is
+     * already running.
+     */
+    public PhraseCorrection beginPhraseCorrection() {
+        return null;
+    }
+
+    /**
+     * Returns a begun model load event, or null if JFR is not running
+     */
+    public ModelLoad beginModelLoad() {
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+
+/**
+ * Good-Turing smoothing. A pair seen r times counts as
+ * r* = (r + 1) * N(r + 1) / N(r), where N(r) is the number of distinct pairs
+ * seen r times, and a pair never seen counts as N(1) / N(0). Counts of at
+ * least MAX_ADJUSTED_COUNT are reliable and are used as they are (Katz).
+ * P(word | context) = r* / (sum of the counts with the context).
+ */
+public class GoodTuringSmoothing implements Smoothing {
+
+    final static int MAX_ADJUSTED_COUNT = 5;
+
+    @Override
+    public Estimator prepare(BigramStatistics statistics) {
+        double V = statistics.getVocabularySize();
+        double[] adjusted = new double[MAX_ADJUSTED_COUNT];
+        for (int r = 1; r < MAX_ADJUSTED_COUNT; r++) {
+            long nr = statistics.getCountOfCount(r);
+            long next = statistics.getCountOfCount(r + 1);
+            // Without pairs seen r + 1 times the estimate would be 0
+            adjusted[r] = nr > 0 && next > 0 ? (r + 1) * (double) next / nr : r;
+        }
+        double unseenPairs = Math.max(1, V * V - statistics.getBigramTypes());
+        double unseenCount = Math.max(statistics.getCountOfCount(1), 1) / unseenPairs;
+
+        return new Estimator() {
+            @Override
+            public double logSeen(int contextId, int wordId, int count) {
+                double r = count < MAX_ADJUSTED_COUNT ? adjusted[count] : count;
+                return Math.log(r / statistics.getContextTotal(contextId));
+            }
+
+            @Override
+            public double logUnseenContext(int contextId) {
+                long total = statistics.getContextTotal(contextId);
+                // A context never seen in a pair says nothing about its neighbours
+                return total > 0 ? Math.log(unseenCount / total) : -Math.log(V);
+            }
+
+            @Override
+            public double logUnseenWord(int wordId) {
+                return 0;
+            }
+        };
+    }
+}
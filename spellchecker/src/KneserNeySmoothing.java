@@ -0,0 +1,54 @@
+
+/**
+ * Interpolated Kneser-Ney smoothing. Every seen pair gives up a discount D,
+ * which is spread over all words in proportion to the number of distinct
+ * contexts they were seen with:
+ *
+ * P(word | context) = max(count - D, 0) / total(context)
+ * + D * types(context) / total(context) * Pcont(word)
+ *
+ * where total is the sum of the counts with the context and types the number
+ * of distinct words seen with it. Pcont(word) adds one to the number of
+ * contexts of every word, so words never seen in a pair keep a small
+ * probability. D = N(1) / (N(1) + 2 N(2)).
+ */
+public class KneserNeySmoothing implements Smoothing {
+
+    final static double DEFAULT_DISCOUNT = 0.75; // when there are too few pairs to estimate D
+
+    @Override
+    public Estimator prepare(BigramStatistics statistics) {
+        long n1 = statistics.getCountOfCount(1);
+        long n2 = statistics.getCountOfCount(2);
+        double discount = n1 > 0 ? (double) n1 / (n1 + 2 * n2) : DEFAULT_DISCOUNT;
+        double continuationTotal = (double) statistics.getBigramTypes() + statistics.getVocabularySize();
+
+        return new Estimator() {
+            private double continuation(int wordId) {
+                return (statistics.getWordTypes(wordId) + 1) / continuationTotal;
+            }
+
+            private double backOffWeight(int contextId) {
+                return discount * statistics.getContextTypes(contextId) / statistics.getContextTotal(contextId);
+            }
+
+            @Override
+            public double logSeen(int contextId, int wordId, int count) {
+                double total = statistics.getContextTotal(contextId);
+                return Math.log(Math.max(count - discount, 0) / total
+                        + backOffWeight(contextId) * continuation(wordId));
+            }
+
+            @Override
+            public double logUnseenContext(int contextId) {
+                // A context never seen in a pair leaves only the continuation probability
+                return statistics.getContextTotal(contextId) > 0 ? Math.log(backOffWeight(contextId)) : 0;
+            }
+
+            @Override
+            public double logUnseenWord(int wordId) {
+                return Math.log(continuation(wordId));
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The vocabulary grouped by word length, with all characters of one length
+ * stored back to back in a single array. Words within distance k of an
+ * input word differ at most k in length, so a search only scans the
+ * lengths around the input word. Large scans are split over the cores with
+ * fork/join.
+ *
+ * For distance 1 the words are also kept by column, as byte codes, so that
+ * ColumnarVerifier can compare the input word with many words at once.
+ */
+public class LengthShardedVocabulary {
+
+    final static int SEQUENTIAL_WORDS = 2048; // words one task compares without splitting further
+
+    final private char[] chars; // words of length l fill chars[charStart[l], charStart[l + 1])
+    final private int[] charStart;
+    final private int[] wordStart; // words of length l are numbers wordStart[l] until wordStart[l + 1]
+    final private int[] wordIds; // word id per word number
+    final private byte[] columns; // words of length l by column from charStart[l], null if the alphabet is too large
+    final private byte[] codes; // byte code per character, 0 for characters of no word
+
+    /**
+     * Groups the words of the automaton, with their ids in it
+     */
+    public LengthShardedVocabulary(VocabularyAutomaton automaton) {
+        Set<String> vocabulary = automaton.asSet();
+        int maxLength = 0;
+        for (String word : vocabulary) {
+            maxLength = Math.max(maxLength, word.length());
+        }
+
+        // Count the words of every length
+        wordStart = new int[maxLength + 2];
+        charStart = new int[maxLength + 2];
+        for (String word : vocabulary) {
+            wordStart[word.length() + 1]++;
+        }
+        for (int l = 0; l <= maxLength; l++) {
+            charStart[l + 1] = charStart[l] + wordStart[l + 1] * l;
+            wordStart[l + 1] += wordStart[l];
+        }
+
+        // Place the words in id order, which the automaton gives them in, so
+        // scans return ids in a fixed order
+        chars = new char[charStart[maxLength + 1]];
+        wordIds = new int[vocabulary.size()];
+        int[] filled = Arrays.copyOf(wordStart, maxLength + 1);
+        int id = 0;
+        for (String word : vocabulary) {
+            int l = word.length();
+            int number = filled[l]++;
+            word.getChars(0, l, chars, charStart[l] + (number - wordStart[l]) * l);
+            wordIds[number] = id++;
+        }
+
+        // Number the characters from 1, so that 0 matches nothing
+        char maxChar = 0;
+        for (char c : chars) {
+            maxChar = (char) Math.max(maxChar, c);
+        }
+        byte[] charCodes = new byte[maxChar + 1];
+        int alphabetSize = 0;
+        for (char c : chars) {
+            if (charCodes[c] == 0 && alphabetSize++ < 255) {
+                charCodes[c] = (byte) alphabetSize;
+            }
+        }
+        if (alphabetSize > 255) {
+            codes = null;
+            columns = null;
+            return;
+        }
+        codes = charCodes;
+        columns = new byte[chars.length];
+        for (int l = 1; l <= maxLength; l++) {
+            int count = wordStart[l + 1] - wordStart[l];
+            for (int j = 0; j < count; j++) {
+                for (int p = 0; p < l; p++) {
+                    columns[charStart[l] + p * count + j] = codes[chars[charStart[l] + j * l + p]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of all words with a Damerau-Levenshtein distance of at
+     * most k from word.
+     */
+    public int[] findWithinDistance(String word, int k) {
+        int minLength = Math.max(0, word.length() - k);
+        int maxLength = Math.min(getMaxLength(), word.length() + k);
+        if (minLength > maxLength) {
+            return new int[0];
+        }
+        byte[] pattern = k == 1 && columns != null ? encode(word) : null;
+        ScanTask scan = new ScanTask(word.toCharArray(), pattern, k, wordStart[minLength], wordStart[maxLength + 1]);
+        // Small scans are not worth handing to the pool
+        return scan.isSmall() ? scan.compute() : scan.invoke();
+    }
+
+    /**
+     * Returns the byte codes of the characters of word
+     */
+    private byte[] encode(String word) {
+        byte[] pattern = new byte[word.length()];
+        for (int i = 0; i < pattern.length; i++) {
+            char c = word.charAt(i);
+            pattern[i] = c < codes.length ? codes[c] : 0;
+        }
+        return pattern;
+    }
+
+    /**
+     * Returns the length of the longest word
+     */
+    public int getMaxLength() {
+        return wordStart.length - 2;
+    }
+
+    public int size() {
+        return wordIds.length;
+    }
+
+    /**
+     * Compares the pattern with the word numbers from until to, splitting
+     * the range in halves while it is large.
+     */
+    @SuppressWarnings("serial") // never serialized
+    private class ScanTask extends RecursiveTask<int[]> {
+
+        final private char[] pattern;
+        final private byte[] encoded; // pattern as byte codes to compare by column, null to compare by word
+        final private int k;
+        final private int from;
+        final private int to;
+
+        ScanTask(char[] pattern, byte[] encoded, int k, int from, int to) {
+            this.pattern = pattern;
+            this.encoded = encoded;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean isSmall() {
+            return to - from <= SEQUENTIAL_WORDS;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (!isSmall()) {
+                int middle = (from + to) >>> 1;
+                ScanTask right = new ScanTask(pattern, encoded, k, middle, to);
+                right.fork();
+                int[] left = new ScanTask(pattern, encoded, k, from, middle).compute();
+                int[] rightIds = right.join();
+                int[] result = Arrays.copyOf(left, left.length + rightIds.length);
+                System.arraycopy(rightIds, 0, result, left.length, rightIds.length);
+                return result;
+            }
+
+            if (from == to) {
+                return new int[0];
+            }
+            if (encoded != null) {
+                return computeByColumn();
+            }
+            int[] found = new int[8];
+            int count = 0;
+            int l = lengthOf(from);
+            for (int number = from; number < to; number++) {
+                while (number >= wordStart[l + 1]) {
+                    l++;
+                }
+                int offset = charStart[l] + (number - wordStart[l]) * l;
+                if (DamerauLevenshtein.withinDistance(pattern, 0, pattern.length, chars, offset, l, k)) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = wordIds[number];
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+
+        /**
+         * Verifies the words of every length in the range by column
+         */
+        private int[] computeByColumn() {
+            ColumnarVerifier verifier = ColumnarVerifier.get();
+            int[] found = new int[to - from];
+            int count = 0;
+            for (int l = lengthOf(from); l <= getMaxLength() && wordStart[l] < to; l++) {
+                int first = wordStart[l];
+                int start = Math.max(from, first);
+                int end = Math.min(to, wordStart[l + 1]);
+                int before = count;
+                count = verifier.verify(columns, charStart[l], wordStart[l + 1] - first, l, encoded,
+                        start - first, end - first, found, count);
+                for (int i = before; i < count; i++) {
+                    found[i] = wordIds[first + found[i]];
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+    }
+
+    /**
+     * Returns the length of the word with the given number
+     */
+    private int lengthOf(int number) {
+        int l = Arrays.binarySearch(wordStart, number);
+        if (l < 0) {
+            return -l - 2;
+        }
+        // Skip the lengths without words
+        while (wordStart[l + 1] == number) {
+            l++;
+        }
+        return l;
+    }
+}
@@ -0,0 +1,347 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays labelled phrases against a SpellCorrector from a number of threads
+ * and measures throughput, latency, memory and accuracy.
+ *
+ * Without a rate every thread sends its next phrase as soon as the previous
+ * one is answered. With a rate, phrase k is due at k / rate seconds after
+ * the start whatever the threads are doing, and its latency counts from
+ * then, so time spent waiting for a busy thread is included instead of
+ * hidden. Latencies are kept individually, so percentiles are exact.
+ *
+ * Results are written as one flat JSON object, which readResult reads back
+ * to compare two runs.
+ */
+public class LoadHarness {
+
+    final private static String ANSWER_PREFIX = "Answer: ";
+
+    final private SpellCorrector sc;
+    final private String[] phrases;
+    final private String[] answers;
+
+    /**
+     * @param phrases phrases to correct, used round robin
+     * @param answers expected answer of every phrase
+     */
+    public LoadHarness(SpellCorrector sc, String[] phrases, String[] answers) {
+        if (phrases.length == 0 || phrases.length != answers.length) {
+            throw new IllegalArgumentException("Need as many answers as phrases, and at least one.");
+        }
+        this.sc = sc;
+        this.phrases = phrases;
+        this.answers = new String[answers.length];
+        for (int i = 0; i < answers.length; i++) {
+            this.answers[i] = stripAnswerPrefix(answers[i]);
+        }
+    }
+
+    /**
+     * Reads the phrases and the answers from two files with one line per
+     * phrase. Answers may start with "Answer: ", as --batch writes them.
+     */
+    public static LoadHarness fromFiles(SpellCorrector sc, File phrases, File answers) throws IOException {
+        return new LoadHarness(sc, readLines(phrases), readLines(answers));
+    }
+
+    private static String[] readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    private static String stripAnswerPrefix(String answer) {
+        String trimmed = answer.trim();
+        return trimmed.startsWith(ANSWER_PREFIX) ? trimmed.substring(ANSWER_PREFIX.length()) : trimmed;
+    }
+
+    public int size() {
+        return phrases.length;
+    }
+
+    /**
+     * Corrects warmup phrases unmeasured and then requests measured ones
+     *
+     * @param threads number of threads sending phrases
+     * @param rate phrases per second; 0 sends them as fast as the threads
+     * can
+     */
+    public Result run(int threads, double rate, int requests, int warmup) throws InterruptedException {
+        if (threads < 1 || requests < 1 || warmup < 0 || !(rate >= 0)) {
+            throw new IllegalArgumentException("Threads and requests must be positive, rate and warmup not negative.");
+        }
+        if (warmup > 0) {
+            new Pass(threads, 0, warmup).run();
+        }
+
+        // Settle the heap, so the numbers belong to this run only
+        System.gc();
+        long heapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+        long collectionsBefore = collectionCount();
+
+        Pass pass = new Pass(threads, rate, requests);
+        long elapsed = pass.run();
+
+        Result result = new Result();
+        result.put("phrases", phrases.length);
+        result.put("threads", threads);
+        result.put("rate", rate);
+        result.put("requests", requests);
+        result.put("warmup", warmup);
+        result.put("elapsedMillis", elapsed / 1e6);
+        result.put("throughput", requests / (elapsed / 1e9));
+
+        long[] latencies = pass.latencies;
+        Arrays.sort(latencies);
+        double sum = 0;
+        for (long latency : latencies) {
+            sum += latency;
+        }
+        result.put("latencyMeanMicros", sum / latencies.length / 1e3);
+        result.put("latencyP50Micros", percentile(latencies, 50) / 1e3);
+        result.put("latencyP95Micros", percentile(latencies, 95) / 1e3);
+        result.put("latencyP99Micros", percentile(latencies, 99) / 1e3);
+        result.put("latencyMaxMicros", latencies[latencies.length - 1] / 1e3);
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        result.put("heapUsedBeforeMB", heapBefore / 1048576.0);
+        result.put("heapPeakMB", peak / 1048576.0); // sum of the peaks of the heap pools
+        result.put("gcCount", collectionCount() - collectionsBefore);
+        long allocated = pass.allocatedBytes.get();
+        result.put("allocatedBytesPerRequest", allocated < 0 ? -1 : (double) allocated / requests);
+
+        result.put("correct", pass.correct.get());
+        result.put("accuracy", (double) pass.correct.get() / requests);
+        return result;
+    }
+
+    /**
+     * Returns the value at the given percentile (0 - 100) of sorted values,
+     * by the nearest rank
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Returns the bytes the current thread allocated so far, or -1 if the
+     * JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+            if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+                return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One run of a number of requests over all threads
+     */
+    private class Pass {
+
+        final private int threads;
+        final private double rate;
+        final private long[] latencies; // nanoseconds, by request
+        final private AtomicInteger next = new AtomicInteger();
+        final private AtomicInteger correct = new AtomicInteger();
+        final private AtomicLong allocatedBytes = new AtomicLong();
+        private long start;
+
+        Pass(int threads, double rate, int requests) {
+            this.threads = threads;
+            this.rate = rate;
+            this.latencies = new long[requests];
+        }
+
+        /**
+         * Returns the time all requests took in nanoseconds
+         */
+        long run() throws InterruptedException {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(this::work, "load-" + t);
+            }
+            start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            return System.nanoTime() - start;
+        }
+
+        private void work() {
+            long allocatedBefore = allocatedBytes();
+            int k;
+            while ((k = next.getAndIncrement()) < latencies.length) {
+                long due = rate > 0 ? start + (long) (k * 1e9 / rate) : System.nanoTime();
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                int i = k % phrases.length;
+                String answer;
+                try {
+                    answer = sc.correctPhrase(phrases[i]);
+                } catch (RuntimeException ex) {
+                    answer = null; // counts as wrong
+                }
+                latencies[k] = System.nanoTime() - due;
+                if (answers[i].equals(answer)) {
+                    correct.incrementAndGet();
+                }
+            }
+            long allocatedAfter = allocatedBytes();
+            if (allocatedBefore < 0 || allocatedAfter < 0) {
+                allocatedBytes.set(Long.MIN_VALUE); // unknown for the whole pass
+            } else {
+                allocatedBytes.addAndGet(allocatedAfter - allocatedBefore);
+            }
+        }
+    }
+
+    /**
+     * Named values of a run, in the order they were added. The settings of
+     * the corrector, the spellchecker.* system properties, are included so
+     * that a result says what it measured.
+     */
+    public static class Result {
+
+        final private Map<String, String> values = new LinkedHashMap<>();
+
+        Result() {
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (name.startsWith("spellchecker.")) {
+                    values.put(name, quote(System.getProperty(name)));
+                }
+            }
+            values.put("java.version", quote(System.getProperty("java.version")));
+        }
+
+        void put(String name, long value) {
+            values.put(name, Long.toString(value));
+        }
+
+        void put(String name, double value) {
+            values.put(name, Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format("%.3f", value));
+        }
+
+        /**
+         * Returns the value of name as it appears in the JSON, e.g. with
+         * quotes for a string, or null if there is none
+         */
+        public String get(String name) {
+            return values.get(name);
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{");
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                json.append(json.length() > 1 ? ",\n  " : "\n  ")
+                        .append(quote(entry.getKey())).append(": ").append(entry.getValue());
+            }
+            return json.append("\n}\n").toString();
+        }
+
+        private static String quote(String value) {
+            return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+
+    final private static Pattern JSON_MEMBER = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|[^,}\\s]+)");
+
+    /**
+     * Reads a result written by Result.toJson. Values are as they appear in
+     * the JSON.
+     */
+    public static Map<String, String> readResult(File file) throws IOException {
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Map<String, String> values = new LinkedHashMap<>();
+        Matcher member = JSON_MEMBER.matcher(json);
+        while (member.find()) {
+            values.put(member.group(1), member.group(2));
+        }
+        return values;
+    }
+
+    /**
+     * Returns a table of the values of two results side by side, with the
+     * relative change of every number
+     */
+    public static String compare(Map<String, String> first, Map<String, String> second) {
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String name : first.keySet()) {
+            names.put(name, name);
+        }
+        for (String name : second.keySet()) {
+            names.put(name, name);
+        }
+        StringBuilder table = new StringBuilder();
+        for (String name : names.keySet()) {
+            String a = first.containsKey(name) ? first.get(name) : "-";
+            String b = second.containsKey(name) ? second.get(name) : "-";
+            table.append(String.format("%-26s %14s %14s%s%n", name, a, b, change(a, b)));
+        }
+        return table.toString();
+    }
+
+    private static String change(String first, String second) {
+        try {
+            double a = Double.parseDouble(first);
+            double b = Double.parseDouble(second);
+            return a == 0 || a == b ? "" : String.format(" %+8.1f%%", 100 * (b - a) / Math.abs(a));
+        } catch (NumberFormatException ex) {
+            return first.equals(second) ? "" : "  differs";
+        }
+    }
+}
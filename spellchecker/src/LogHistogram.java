@@ -0,0 +1,75 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values in power of two buckets, safe to record
+ * into from many threads. Percentiles are accurate to within a factor of 2,
+ * which is enough to tell a slow input from a normal one.
+ */
+public class LogHistogram {
+
+    // Bucket b counts values v with 2^(b - 1) <= v < 2^b, bucket 0 counts 0
+    final private AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+    final private LongAdder count = new LongAdder();
+    final private LongAdder sum = new LongAdder();
+    final private AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile (0 - 100) of the
+     * recorded values: the upper end of the bucket it falls in, but never
+     * more than the maximum.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int b = 0; b < buckets.length(); b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) {
+                long upper = b == 0 ? 0 : (b >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << b) - 1);
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int b = 0; b < buckets.length(); b++) {
+            buckets.set(b, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,150 @@
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative long keys to int values, using
+ * linear probing over two primitive arrays. Lookups neither box nor allocate.
+ */
+public class LongIntHashMap {
+
+    final private static long EMPTY = -1L; // keys are never negative
+    final private static double MAX_LOAD = 0.5;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Creates a copy of other
+     */
+    public LongIntHashMap(LongIntHashMap other) {
+        this(other.keys.clone(), other.values.clone(), other.size);
+    }
+
+    /**
+     * Adds delta to the value for key, where a missing key counts as 0, and
+     * returns the new value
+     */
+    public int add(long key, int delta) {
+        int value = get(key, 0) + delta;
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Creates a map from the tables of another map, e.g. as read from a
+     * ModelImage. The arrays are used as they are, without rehashing.
+     */
+    LongIntHashMap(long[] keys, int[] values, int size) {
+        if (Integer.bitCount(keys.length) != 1 || keys.length != values.length) {
+            throw new IllegalArgumentException("Tables must have the same power of two length.");
+        }
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Returns the key for a pair of word ids
+     */
+    public static long pairKey(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        // Finalizer of MurmurHash3 to spread the word ids over all bits
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the value for key, or defaultValue if key is not present
+     */
+    public int get(long key, int defaultValue) {
+        int i = slot(key);
+        return keys[i] == EMPTY ? defaultValue : values[i];
+    }
+
+    /**
+     * Returns the index of key in the tables of getKeys and getValues, or -1
+     * if key is not present. Lets callers keep arrays parallel to the map.
+     */
+    public int indexOf(long key) {
+        int i = slot(key);
+        return keys[i] == EMPTY ? -1 : i;
+    }
+
+    public boolean containsKey(long key) {
+        return keys[slot(key)] != EMPTY;
+    }
+
+    /**
+     * Sets the value for key, replacing any previous value
+     */
+    public void put(long key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Keys must be non-negative.");
+        }
+        int i = slot(key);
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+
+        if (size > keys.length * MAX_LOAD) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    long[] getKeys() {
+        return keys;
+    }
+
+    int[] getValues() {
+        return values;
+    }
+}
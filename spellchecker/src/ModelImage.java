@@ -0,0 +1,294 @@
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled model: the vocabulary automaton, n-gram counts, the tables of the
+ * default bigram model and the confusion matrix in one versioned binary file.
+ * Reading it memory-maps the file and copies the tables in bulk, which is
+ * much faster than parsing the text files. The automaton holds the words of
+ * the vocabulary and their ids, so only the few corpus words outside it are
+ * stored as strings. The candidate index is not stored; CorpusReader builds
+ * it when it is first used.
+ *
+ * Layout, all big-endian:
+ * <pre>
+ * int magic, int version
+ * vocabulary:      int alphabetLength, char[alphabetLength] alphabet, int maxLength,
+ *                  packed firstArc, arcLabels, arcTargets, arcRanks,
+ *                  int finalLength, long[finalLength] finalStates, int size
+ * extra words:     int extraCount, int[extraCount] wordEnds, int charCount, char[charCount] chars
+ * int[size + extraCount] unigramCounts
+ * bigram table:    int capacity, int size, long[capacity] keys, int[capacity] values
+ * longer n-grams:  int count, count * (int length, char[length] ngram, int count)
+ * bigram model:    double k, 8 * (int length, double[length] table), see BigramModel.getTables
+ * confusion:       int count, count * (int length, char[length] key, int count)
+ * packed:          int size, int bits, int length, long[length] data, see PackedInts
+ * </pre>
+ */
+public class ModelImage {
+
+    final static String IMAGE_LOC = "model.bin";
+    final static int MAGIC = 0x5350434D; // "SPCM"
+    final static int VERSION = 5;
+
+    final VocabularyAutomaton vocabulary;
+    final String[] extraWords; // corpus words outside the vocabulary, with ids from its size on
+    final int[] unigramCounts;
+    final LongIntHashMap bigramCounts;
+    final HashMap<String, Integer> ngrams;
+    final double[][] bigramTables; // of Add-K smoothing with CorpusReader.K; null if made with another K
+    final HashMap<String, Integer> confusionMatrix;
+
+    private ModelImage(ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a model image.");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported model image version " + version + ".");
+        }
+
+        char[] alphabet = readChars(in, in.getInt());
+        int maxLength = in.getInt();
+        PackedInts firstArc = readPacked(in);
+        PackedInts arcLabels = readPacked(in);
+        PackedInts arcTargets = readPacked(in);
+        PackedInts arcRanks = readPacked(in);
+        long[] finalStates = readLongs(in, in.getInt());
+        vocabulary = new VocabularyAutomaton(alphabet, firstArc, arcLabels, arcTargets, arcRanks, finalStates,
+                in.getInt(), maxLength);
+
+        int[] wordEnds = readInts(in, in.getInt());
+        char[] chars = readChars(in, in.getInt());
+        extraWords = new String[wordEnds.length];
+        for (int i = 0, start = 0; i < extraWords.length; start = wordEnds[i++]) {
+            extraWords[i] = new String(chars, start, wordEnds[i] - start);
+        }
+        int wordCount = vocabulary.size() + extraWords.length;
+        unigramCounts = readInts(in, wordCount);
+
+        bigramCounts = readTable(in);
+        ngrams = readCounts(in);
+
+        double k = in.getDouble();
+        double[][] tables = new double[8][];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = readDoubles(in, in.getInt());
+            int expected = i < 2 ? bigramCounts.getKeys().length : wordCount + 1;
+            if (tables[i].length != expected) {
+                throw new IOException("Damaged model image: bigram model table " + i + " has "
+                        + tables[i].length + " values instead of " + expected + ".");
+            }
+        }
+        bigramTables = k == CorpusReader.K ? tables : null;
+
+        confusionMatrix = readCounts(in);
+    }
+
+    /**
+     * Returns whether image exists and is newer than all text files it was
+     * compiled from.
+     */
+    static boolean isUpToDate(File image) {
+        if (!image.isFile()) {
+            return false;
+        }
+        for (String source : new String[]{CorpusReader.CNTFILE_LOC, CorpusReader.VOCFILE_LOC,
+            ConfusionMatrixReader.DATAFILE_LOC}) {
+            File file = new File(source);
+            // A missing source has lastModified 0, so check it exists
+            if (!file.isFile() || file.lastModified() > image.lastModified()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Memory-maps and reads a compiled model. A truncated or otherwise
+     * damaged image gives an IOException.
+     */
+    public static ModelImage read(File image) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(image, "r");
+                FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ModelImage(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex) {
+            throw new IOException("Damaged model image: " + ex, ex);
+        }
+    }
+
+    /**
+     * Compiles the models held by cr, as it was loaded with the default
+     * smoothing, and cmr into image.
+     */
+    public static void write(File image, CorpusReader cr, ConfusionMatrixReader cmr) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(image), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            VocabularyAutomaton vocabulary = cr.getVocabularyAutomaton();
+            out.writeInt(vocabulary.getAlphabet().length);
+            for (char c : vocabulary.getAlphabet()) {
+                out.writeChar(c);
+            }
+            out.writeInt(vocabulary.getMaxLength());
+            writePacked(out, vocabulary.getFirstArc());
+            writePacked(out, vocabulary.getArcLabels());
+            writePacked(out, vocabulary.getArcTargets());
+            writePacked(out, vocabulary.getArcRanks());
+            writeLongs(out, vocabulary.getFinalStates());
+            out.writeInt(vocabulary.size());
+
+            String[] extraWords = cr.getExtraWords();
+            out.writeInt(extraWords.length);
+            int end = 0;
+            for (String word : extraWords) {
+                end += word.length();
+                out.writeInt(end);
+            }
+            out.writeInt(end);
+            for (String word : extraWords) {
+                out.writeChars(word);
+            }
+            writeInts(out, cr.getUnigramCounts());
+
+            writeTable(out, cr.getBigramCounts());
+            writeCounts(out, cr.getLongerNGrams());
+
+            out.writeDouble(CorpusReader.K);
+            for (double[] table : cr.getBigramModel().getTables()) {
+                out.writeInt(table.length);
+                for (double value : table) {
+                    out.writeDouble(value);
+                }
+            }
+
+            writeCounts(out, cmr.getConfusionMatrix());
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static void writePacked(DataOutputStream out, PackedInts values) throws IOException {
+        out.writeInt(values.size());
+        out.writeInt(values.getBits());
+        writeLongs(out, values.getData());
+    }
+
+    private static void writeTable(DataOutputStream out, LongIntHashMap table) throws IOException {
+        out.writeInt(table.getKeys().length);
+        out.writeInt(table.size());
+        for (long key : table.getKeys()) {
+            out.writeLong(key);
+        }
+        writeInts(out, table.getValues());
+    }
+
+    private static void writeCounts(DataOutputStream out, Map<String, Integer> counts) throws IOException {
+        out.writeInt(counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            out.writeInt(entry.getKey().length());
+            out.writeChars(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    /**
+     * Moves past bytes that were read through a view buffer. The cast keeps
+     * the call compatible with the Java 8 runtime.
+     */
+    private static void skip(ByteBuffer in, int bytes) {
+        ((Buffer) in).position(in.position() + bytes);
+    }
+
+    /**
+     * Checks that in holds length values of the given size, so that a
+     * damaged length does not allocate a huge array
+     */
+    private static void require(ByteBuffer in, int length, int bytes) throws IOException {
+        if (length < 0 || (long) length * bytes > in.remaining()) {
+            throw new IOException("Damaged model image: " + length + " values past the end.");
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int length) throws IOException {
+        require(in, length, Integer.BYTES);
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        skip(in, length * Integer.BYTES);
+        return values;
+    }
+
+    private static char[] readChars(ByteBuffer in, int length) throws IOException {
+        require(in, length, Character.BYTES);
+        char[] values = new char[length];
+        in.asCharBuffer().get(values);
+        skip(in, length * Character.BYTES);
+        return values;
+    }
+
+    private static long[] readLongs(ByteBuffer in, int length) throws IOException {
+        require(in, length, Long.BYTES);
+        long[] values = new long[length];
+        in.asLongBuffer().get(values);
+        skip(in, length * Long.BYTES);
+        return values;
+    }
+
+    private static PackedInts readPacked(ByteBuffer in) throws IOException {
+        int size = in.getInt();
+        int bits = in.getInt();
+        return new PackedInts(readLongs(in, in.getInt()), size, bits);
+    }
+
+    private static double[] readDoubles(ByteBuffer in, int length) throws IOException {
+        require(in, length, Double.BYTES);
+        double[] values = new double[length];
+        in.asDoubleBuffer().get(values);
+        skip(in, length * Double.BYTES);
+        return values;
+    }
+
+    private static LongIntHashMap readTable(ByteBuffer in) throws IOException {
+        int capacity = in.getInt();
+        int size = in.getInt();
+        require(in, capacity, Long.BYTES + Integer.BYTES);
+        long[] keys = readLongs(in, capacity);
+        return new LongIntHashMap(keys, readInts(in, capacity), size);
+    }
+
+    private static HashMap<String, Integer> readCounts(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        require(in, count, 2 * Integer.BYTES); // at least a length and a count each
+        HashMap<String, Integer> counts = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            counts.put(new String(readChars(in, in.getInt())), in.getInt());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,267 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Enumerates the phrases of a candidate lattice from the highest score
+ * downwards, under the same rules as PhraseDecoder. A backward Viterbi pass
+ * first finds, for every state, the best score of the rest of the phrase.
+ * An A* search uses that as its estimate, which is exact, so every state it
+ * takes from the queue lies on the next best phrase. The k best phrases
+ * therefore cost the backward pass plus about k times the phrase length
+ * expansions, and phrases are only produced when asked for.
+ *
+ * With trigram scores the state at a position is the candidate there and
+ * the one before it, as in PhraseDecoder, so the phrases come in the order
+ * of the scores PhraseDecoder maximizes.
+ */
+public class NBestDecoder implements Iterator<Suggestion> {
+
+    final private CandidateLattice lattice;
+    final private int maxCorrections;
+    final private boolean trigrams; // whether states hold the candidate before as well, see state
+    // rest[i][s][k]: best score of positions i + 1 and on after state s at position i with k corrections
+    final private double[][][] rest;
+    final private PriorityQueue<Path> queue = new PriorityQueue<>(
+            Comparator.comparingDouble((Path path) -> path.estimate).reversed());
+
+    /**
+     * A phrase prefix ending in one candidate. Prefixes share their earlier
+     * positions, so each expansion only adds one element.
+     */
+    private static class Path {
+
+        final Path previous;
+        final int position;
+        final int candidate;
+        final int corrections;
+        final double score; // score of the prefix
+        final double estimate; // score of the best phrase starting with the prefix
+
+        Path(Path previous, int position, int candidate, int corrections, double score, double estimate) {
+            this.previous = previous;
+            this.position = position;
+            this.candidate = candidate;
+            this.corrections = corrections;
+            this.score = score;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * @param maxCorrections maximum number of corrected words in a phrase
+     */
+    public NBestDecoder(CandidateLattice lattice, int maxCorrections) {
+        if (maxCorrections < 0) {
+            throw new IllegalArgumentException("Corrections must be non-negative.");
+        }
+        this.lattice = lattice;
+        this.maxCorrections = maxCorrections;
+        this.trigrams = lattice.trigrams && lattice.size() > 2;
+        this.rest = scoreRest();
+
+        if (lattice.size() > 0) {
+            for (int j = 0; j < lattice.candidates[0].length; j++) {
+                int corrections = lattice.isCorrection[0][j] ? 1 : 0;
+                if (corrections <= maxCorrections) {
+                    push(null, 0, j, corrections, lattice.emission[0][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of candidates at position i - 1 a state at
+     * position i tells apart: all of them with trigrams, otherwise one
+     */
+    private int contexts(int i) {
+        return trigrams && i > 0 ? lattice.candidates[i - 1].length : 1;
+    }
+
+    /**
+     * Returns the state of candidate j at position i after candidate p at
+     * position i - 1; p only counts with trigrams
+     */
+    private int state(int i, int p, int j) {
+        return trigrams && i > 0 ? p * lattice.candidates[i].length + j : j;
+    }
+
+    /**
+     * Returns the score candidate j at position i adds after candidate p at
+     * i - 1 and candidate q at i - 2; q only counts with trigrams
+     */
+    private double step(int i, int q, int p, int j) {
+        double score = lattice.transition(i, p, j) + lattice.emission[i][j];
+        return trigrams && i > 1 ? score + lattice.trigram(i, q, p, j) : score;
+    }
+
+    /**
+     * Runs Viterbi from the last position backwards.
+     */
+    private double[][][] scoreRest() {
+        int n = lattice.size();
+        double[][][] result = new double[n][][];
+        for (int i = n - 1; i >= 0; i--) {
+            int count = lattice.candidates[i].length;
+            int contexts = contexts(i);
+            result[i] = new double[contexts * count][maxCorrections + 1];
+            for (int p = 0; p < contexts; p++) {
+                for (int j = 0; j < count; j++) {
+                    double[] state = result[i][state(i, p, j)];
+                    Arrays.fill(state, i == n - 1 ? 0 : Double.NEGATIVE_INFINITY);
+                    if (i == n - 1) {
+                        continue;
+                    }
+                    for (int q = 0; q < lattice.candidates[i + 1].length; q++) {
+                        boolean isCorrection = lattice.isCorrection[i + 1][q];
+                        // Two consecutive words may not both be corrected
+                        if (isCorrection && lattice.isCorrection[i][j]) {
+                            continue;
+                        }
+                        int added = isCorrection ? 1 : 0;
+                        double[] next = result[i + 1][state(i + 1, j, q)];
+                        double step = Double.NaN;
+                        for (int k = 0; k + added <= maxCorrections; k++) {
+                            double after = next[k + added];
+                            if (after == Double.NEGATIVE_INFINITY) {
+                                continue;
+                            }
+                            if (Double.isNaN(step)) {
+                                step = step(i + 1, p, j, q);
+                            }
+                            state[k] = Math.max(state[k], step + after);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void push(Path previous, int position, int candidate, int corrections, double score) {
+        int before = previous == null ? 0 : previous.candidate;
+        double estimate = score + rest[position][state(position, before, candidate)][corrections];
+        // Prefixes that cannot be completed are dropped
+        if (estimate > Double.NEGATIVE_INFINITY) {
+            queue.add(new Path(previous, position, candidate, corrections, score, estimate));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    /**
+     * Returns the next best phrase
+     */
+    @Override
+    public Suggestion next() {
+        int last = lattice.size() - 1;
+        while (!queue.isEmpty()) {
+            Path path = queue.poll();
+            if (path.position == last) {
+                return new Suggestion(toPhrase(path), path.score);
+            }
+
+            int i = path.position + 1;
+            boolean wasCorrection = lattice.isCorrection[path.position][path.candidate];
+            for (int q = 0; q < lattice.candidates[i].length; q++) {
+                boolean isCorrection = lattice.isCorrection[i][q];
+                int corrections = path.corrections + (isCorrection ? 1 : 0);
+                if ((isCorrection && wasCorrection) || corrections > maxCorrections) {
+                    continue;
+                }
+                int before = path.previous == null ? 0 : path.previous.candidate;
+                double score = path.score + step(i, before, path.candidate, q);
+                push(path, i, q, corrections, score);
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    private String toPhrase(Path path) {
+        int[] choice = new int[lattice.size()];
+        for (Path p = path; p != null; p = p.previous) {
+            choice[p.position] = p.candidate;
+        }
+        return lattice.phrase(choice);
+    }
+
+    /**
+     * Returns the candidates of every word, best first, each scored by the
+     * best phrase that uses it. Candidates that appear in no allowed phrase
+     * are left out.
+     */
+    public List<List<Suggestion>> getWordSuggestions() {
+        int n = lattice.size();
+        List<List<Suggestion>> result = new ArrayList<>(n);
+
+        // Forward Viterbi pass: best score of the prefix up to each state
+        double[][][] prefix = new double[n][][];
+        for (int i = 0; i < n; i++) {
+            int count = lattice.candidates[i].length;
+            int contexts = contexts(i);
+            prefix[i] = new double[contexts * count][maxCorrections + 1];
+            for (int p = 0; p < contexts; p++) {
+                for (int j = 0; j < count; j++) {
+                    double[] state = prefix[i][state(i, p, j)];
+                    Arrays.fill(state, Double.NEGATIVE_INFINITY);
+                    boolean isCorrection = lattice.isCorrection[i][j];
+                    int added = isCorrection ? 1 : 0;
+                    if (i == 0) {
+                        if (added <= maxCorrections) {
+                            state[added] = lattice.emission[0][j];
+                        }
+                        continue;
+                    }
+                    // Without trigrams the candidate before is free, otherwise it is p
+                    int from = trigrams ? p : 0;
+                    int to = trigrams ? p + 1 : lattice.candidates[i - 1].length;
+                    for (int r = from; r < to; r++) {
+                        if (isCorrection && lattice.isCorrection[i - 1][r]) {
+                            continue;
+                        }
+                        for (int q = 0; q < contexts(i - 1); q++) {
+                            double[] previous = prefix[i - 1][state(i - 1, q, r)];
+                            double step = Double.NaN;
+                            for (int k = 0; k + added <= maxCorrections; k++) {
+                                double before = previous[k];
+                                if (before == Double.NEGATIVE_INFINITY) {
+                                    continue;
+                                }
+                                if (Double.isNaN(step)) {
+                                    step = step(i, q, r, j);
+                                }
+                                state[k + added] = Math.max(state[k + added], before + step);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Best phrase through a candidate = best prefix up to one of its states + best rest after it
+            List<Suggestion> suggestions = new ArrayList<>();
+            for (int j = 0; j < count; j++) {
+                double best = Double.NEGATIVE_INFINITY;
+                for (int p = 0; p < contexts; p++) {
+                    int state = state(i, p, j);
+                    for (int k = 0; k <= maxCorrections; k++) {
+                        best = Math.max(best, prefix[i][state][k] + rest[i][state][k]);
+                    }
+                }
+                if (best > Double.NEGATIVE_INFINITY) {
+                    suggestions.add(new Suggestion(lattice.candidates[i][j], best));
+                }
+            }
+            suggestions.sort(Comparator.comparingDouble(Suggestion::getScore).reversed());
+            result.add(suggestions);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,102 @@
+
+/**
+ * Non-negative ints of a fixed number of bits, packed into longs
+ */
+class PackedInts {
+
+    final private long[] data;
+    final private int bits;
+    final private long mask;
+    final private int size;
+
+    PackedInts(int size, int bits) {
+        this.size = size;
+        this.bits = bits;
+        this.mask = (1L << bits) - 1;
+        this.data = new long[dataLength(size, bits)];
+    }
+
+    /**
+     * Wraps values packed by another instance, as getData returned them
+     */
+    PackedInts(long[] data, int size, int bits) {
+        if (bits < 1 || bits > 32 || data.length != dataLength(size, bits)) {
+            throw new IllegalArgumentException("Not " + size + " values of " + bits + " bits: "
+                    + data.length + " longs.");
+        }
+        this.size = size;
+        this.bits = bits;
+        this.mask = (1L << bits) - 1;
+        this.data = data;
+    }
+
+    private static int dataLength(int size, int bits) {
+        return (int) (((long) size * bits + 63) / 64) + 1; // one spare long, so get may read two
+    }
+
+    /**
+     * Returns the bits needed to store values different values, 0 to
+     * values - 1
+     */
+    static int bitsFor(int values) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(values - 1));
+    }
+
+    int get(int i) {
+        long position = (long) i * bits;
+        int index = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        long value = data[index] >>> shift;
+        if (shift + bits > 64) {
+            value |= data[index + 1] << (64 - shift);
+        }
+        return (int) (value & mask);
+    }
+
+    void set(int i, int value) {
+        long position = (long) i * bits;
+        int index = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        data[index] |= (value & mask) << shift;
+        if (shift + bits > 64) {
+            data[index + 1] |= (value & mask) >>> (64 - shift);
+        }
+    }
+
+    /**
+     * Returns the index of value in the sorted range from (inclusive) to
+     * (exclusive), or -1 if it is not there
+     */
+    int search(int from, int to, int value) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = get(middle);
+            if (found < value) {
+                low = middle + 1;
+            } else if (found > value) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getBits() {
+        return bits;
+    }
+
+    long[] getData() {
+        return data;
+    }
+
+    long getSizeInBytes() {
+        return 8L * data.length;
+    }
+}
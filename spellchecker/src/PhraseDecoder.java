@@ -0,0 +1,357 @@
+
+import java.util.Arrays;
+
+/**
+ * Finds the best corrected phrase with a Viterbi search over the candidate
+ * lattice. The phrase score only uses neighbouring word pairs, so the state
+ * at every position is (chosen candidate, corrections used). Whether the
+ * previous word was a correction follows from the chosen candidate. With
+ * trigram scores the state is (candidates chosen at this and the previous
+ * position, corrections used) instead.
+ */
+public class PhraseDecoder {
+
+    final private SpellCorrector scorer;
+    final private CorpusReader cr;
+    final private int maxCorrections;
+    final private int beamWidth;
+    private long transitionsScored; // word pairs scored by decode so far
+    private long deadline; // System.nanoTime() at which bestPath gives up, if hasDeadline
+    private boolean hasDeadline;
+    private boolean expired;
+
+    /**
+     * @param scorer supplies the emission and transition scores
+     * @param cr maps the candidates to word ids
+     * @param maxCorrections maximum number of corrected words in a phrase
+     * @param beamWidth number of states kept per position, or 0 to keep all
+     */
+    public PhraseDecoder(SpellCorrector scorer, CorpusReader cr, int maxCorrections, int beamWidth) {
+        if (maxCorrections < 0 || beamWidth < 0) {
+            throw new IllegalArgumentException("Corrections and beam width must be non-negative.");
+        }
+        this.scorer = scorer;
+        this.cr = cr;
+        this.maxCorrections = maxCorrections;
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * Makes bestPath give up once System.nanoTime() passes deadline. It is
+     * checked once per position, so a position that was started is
+     * finished. A search that gives up returns null and isExpired returns
+     * true from then on.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Returns whether a search gave up at the deadline
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    private boolean isPastDeadline() {
+        if (hasDeadline && System.nanoTime() - deadline >= 0) {
+            expired = true;
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the highest scoring phrase in which every word is replaced by
+     * one of its candidates, at most maxCorrections words differ from the
+     * input and no two corrected words are adjacent. Returns an empty string
+     * if no such phrase exists.
+     *
+     * @param words words of the input phrase
+     * @param candidates candidates for each word, including the word itself
+     * if it is allowed to stay unchanged
+     */
+    public String decode(String[] words, String[][] candidates) {
+        return decode(new CandidateLattice(scorer, cr, words, candidates));
+    }
+
+    /**
+     * Returns the highest scoring phrase of the lattice, see
+     * decode(String[], String[][]).
+     */
+    public String decode(CandidateLattice lattice) {
+        int[] path = bestPath(lattice);
+        return path == null ? "" : lattice.phrase(path);
+    }
+
+    /**
+     * Returns the candidate chosen at every position of the highest scoring
+     * phrase of the lattice, or null if no phrase is allowed or the deadline
+     * passed.
+     */
+    public int[] bestPath(CandidateLattice lattice) {
+        int n = lattice.size();
+        if (n == 0) {
+            return new int[0];
+        }
+        if (lattice.trigrams && n > 2) {
+            return bestPathWithTrigrams(lattice);
+        }
+        int levels = maxCorrections + 1;
+        String[][] candidates = lattice.candidates;
+        long scoredBefore = lattice.getTransitionsScored();
+
+        // score[i][j][k]: best score of a prefix ending in candidate j at position i with k corrections
+        double[][][] score = new double[n][][];
+        // back[i][j][k]: candidate at position i - 1 on that best prefix
+        int[][][] back = new int[n][][];
+
+        for (int i = 0; i < n; i++) {
+            if (isPastDeadline()) {
+                transitionsScored += lattice.getTransitionsScored() - scoredBefore;
+                return null;
+            }
+            String[] current = candidates[i];
+            score[i] = new double[current.length][levels];
+            back[i] = new int[current.length][levels];
+
+            for (int j = 0; j < current.length; j++) {
+                Arrays.fill(score[i][j], Double.NEGATIVE_INFINITY);
+                boolean isCorrection = lattice.isCorrection[i][j];
+                int added = isCorrection ? 1 : 0;
+                if (added >= levels) {
+                    continue;
+                }
+                double emission = lattice.emission[i][j];
+
+                if (i == 0) {
+                    score[0][j][added] = emission;
+                    continue;
+                }
+
+                for (int p = 0; p < candidates[i - 1].length; p++) {
+                    // Two consecutive words may not both be corrected
+                    if (isCorrection && lattice.isCorrection[i - 1][p]) {
+                        continue;
+                    }
+                    if (!isReachable(score[i - 1][p])) {
+                        continue;
+                    }
+
+                    double transition = lattice.transition(i, p, j);
+                    for (int k = 0; k + added < levels; k++) {
+                        double s = score[i - 1][p][k] + transition + emission;
+                        if (s > score[i][j][k + added]) {
+                            score[i][j][k + added] = s;
+                            back[i][j][k + added] = p;
+                        }
+                    }
+                }
+            }
+
+            if (beamWidth > 0) {
+                prune(score[i]);
+            }
+        }
+
+        // Find the best final state
+        int bestCandidate = -1;
+        int bestLevel = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < candidates[n - 1].length; j++) {
+            for (int k = 0; k < levels; k++) {
+                if (score[n - 1][j][k] > bestScore) {
+                    bestScore = score[n - 1][j][k];
+                    bestCandidate = j;
+                    bestLevel = k;
+                }
+            }
+        }
+        transitionsScored += lattice.getTransitionsScored() - scoredBefore;
+        if (bestCandidate < 0) {
+            return null;
+        }
+
+        // Follow the back pointers to recover the phrase
+        int[] choice = new int[n];
+        int j = bestCandidate;
+        int k = bestLevel;
+        for (int i = n - 1; i >= 0; i--) {
+            choice[i] = j;
+            if (i > 0) {
+                int p = back[i][j][k];
+                if (lattice.isCorrection[i][j]) {
+                    k--;
+                }
+                j = p;
+            }
+        }
+        return choice;
+    }
+
+    /**
+     * bestPath for a lattice with trigram scores. The state of position i is
+     * stored at index p * candidates[i].length + j for candidate p at i - 1
+     * and candidate j at i, so the beam prunes states as before.
+     */
+    private int[] bestPathWithTrigrams(CandidateLattice lattice) {
+        int n = lattice.size();
+        int levels = maxCorrections + 1;
+        String[][] candidates = lattice.candidates;
+        long scoredBefore = lattice.getTransitionsScored();
+
+        // score[i][p * count + j][k]: best score of a prefix ending in candidates p, j at positions i - 1, i
+        // with k corrections, for i >= 1
+        double[][][] score = new double[n][][];
+        // back[i][p * count + j][k]: candidate at position i - 2 on that best prefix
+        int[][][] back = new int[n][][];
+
+        // Position 0 alone, as in bestPath
+        double[][] first = new double[candidates[0].length][levels];
+        for (int j = 0; j < candidates[0].length; j++) {
+            Arrays.fill(first[j], Double.NEGATIVE_INFINITY);
+            int added = lattice.isCorrection[0][j] ? 1 : 0;
+            if (added < levels) {
+                first[j][added] = lattice.emission[0][j];
+            }
+        }
+
+        for (int i = 1; i < n; i++) {
+            if (isPastDeadline()) {
+                transitionsScored += lattice.getTransitionsScored() - scoredBefore;
+                return null;
+            }
+            int count = candidates[i].length;
+            int prevCount = candidates[i - 1].length;
+            score[i] = new double[prevCount * count][levels];
+            back[i] = new int[prevCount * count][levels];
+            for (double[] state : score[i]) {
+                Arrays.fill(state, Double.NEGATIVE_INFINITY);
+            }
+
+            for (int p = 0; p < prevCount; p++) {
+                for (int j = 0; j < count; j++) {
+                    boolean isCorrection = lattice.isCorrection[i][j];
+                    int added = isCorrection ? 1 : 0;
+                    // Two consecutive words may not both be corrected
+                    if (added >= levels || (isCorrection && lattice.isCorrection[i - 1][p])) {
+                        continue;
+                    }
+                    double[] state = score[i][p * count + j];
+                    double step = Double.NaN; // transition and emission, scored once a predecessor is reachable
+
+                    if (i == 1) {
+                        if (!isReachable(first[p])) {
+                            continue;
+                        }
+                        step = lattice.transition(i, p, j) + lattice.emission[i][j];
+                        for (int k = 0; k + added < levels; k++) {
+                            state[k + added] = first[p][k] + step;
+                        }
+                        continue;
+                    }
+
+                    int prevPrevCount = candidates[i - 2].length;
+                    for (int q = 0; q < prevPrevCount; q++) {
+                        double[] before = score[i - 1][q * prevCount + p];
+                        if (!isReachable(before)) {
+                            continue;
+                        }
+                        if (Double.isNaN(step)) {
+                            step = lattice.transition(i, p, j) + lattice.emission[i][j];
+                        }
+                        double transition = step + lattice.trigram(i, q, p, j);
+                        for (int k = 0; k + added < levels; k++) {
+                            double s = before[k] + transition;
+                            if (s > state[k + added]) {
+                                state[k + added] = s;
+                                back[i][p * count + j][k + added] = q;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (beamWidth > 0) {
+                prune(score[i]);
+            }
+        }
+
+        // Find the best final state
+        int last = candidates[n - 1].length;
+        int bestState = -1;
+        int bestLevel = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int state = 0; state < score[n - 1].length; state++) {
+            for (int k = 0; k < levels; k++) {
+                if (score[n - 1][state][k] > bestScore) {
+                    bestScore = score[n - 1][state][k];
+                    bestState = state;
+                    bestLevel = k;
+                }
+            }
+        }
+        transitionsScored += lattice.getTransitionsScored() - scoredBefore;
+        if (bestState < 0) {
+            return null;
+        }
+
+        // Follow the back pointers to recover the phrase
+        int[] choice = new int[n];
+        int j = bestState % last;
+        int p = bestState / last;
+        int k = bestLevel;
+        for (int i = n - 1; i >= 1; i--) {
+            choice[i] = j;
+            choice[i - 1] = p;
+            if (i > 1) {
+                int q = back[i][p * candidates[i].length + j][k];
+                if (lattice.isCorrection[i][j]) {
+                    k--;
+                }
+                j = p;
+                p = q;
+            }
+        }
+        return choice;
+    }
+
+    /**
+     * Returns the number of word pairs scored by this decoder
+     */
+    public long getTransitionsScored() {
+        return transitionsScored;
+    }
+
+    private static boolean isReachable(double[] levels) {
+        for (double s : levels) {
+            if (s > Double.NEGATIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps only the beamWidth best states of a position. States tied with
+     * the last kept state are kept as well.
+     */
+    private void prune(double[][] states) {
+        double[] all = Arrays.stream(states)
+                .flatMapToDouble(Arrays::stream)
+                .filter(s -> s > Double.NEGATIVE_INFINITY)
+                .toArray();
+        if (all.length <= beamWidth) {
+            return;
+        }
+        Arrays.sort(all);
+        double threshold = all[all.length - beamWidth];
+        for (double[] levels : states) {
+            for (int k = 0; k < levels.length; k++) {
+                if (levels[k] < threshold) {
+                    levels[k] = Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+
+/**
+ * Cheap check of which words of a phrase may need correcting. A word is
+ * plausible if it is in the vocabulary, was seen at least minWordCount times
+ * and forms a pair seen at least minPairCount times with one of its
+ * neighbours. Other words are suspicious. Only suspicious words and their
+ * neighbours need the candidate search; the rest stay as they are. A check
+ * does not change once created, so it can be shared by any number of
+ * threads.
+ */
+public class PlausibilityCheck {
+
+    /**
+     * Trusts every vocabulary word that was seen next to one of its
+     * neighbours at least once
+     */
+    final static PlausibilityCheck DEFAULT = new PlausibilityCheck(1, 1);
+
+    final private int minWordCount;
+    final private int minPairCount;
+
+    /**
+     * @param minWordCount unigram count a word needs to be plausible
+     * @param minPairCount bigram count a word needs with its previous or
+     * next word to be plausible; 0 accepts every vocabulary word
+     */
+    public PlausibilityCheck(int minWordCount, int minPairCount) {
+        if (minWordCount < 0 || minPairCount < 0) {
+            throw new IllegalArgumentException("Thresholds must be non-negative.");
+        }
+        this.minWordCount = minWordCount;
+        this.minPairCount = minPairCount;
+    }
+
+    public int getMinWordCount() {
+        return minWordCount;
+    }
+
+    public int getMinPairCount() {
+        return minPairCount;
+    }
+
+    /**
+     * Returns for every word of words whether it needs the candidate search:
+     * it is suspicious or next to a suspicious word, by the counts of corpus
+     */
+    boolean[] findPositionsToSearch(CorpusReader.Snapshot corpus, String[] words) {
+        int n = words.length;
+        int[] ids = new int[n];
+        boolean[] known = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            known[i] = corpus.isInVocabulary(words[i]);
+            ids[i] = known[i] ? corpus.getWordId(words[i]) : -1;
+        }
+
+        boolean[] search = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (!isPlausible(corpus, ids, known, i)) {
+                for (int j = Math.max(0, i - 1); j <= Math.min(n - 1, i + 1); j++) {
+                    search[j] = true;
+                }
+            }
+        }
+        return search;
+    }
+
+    private boolean isPlausible(CorpusReader.Snapshot corpus, int[] ids, boolean[] known, int i) {
+        if (!known[i] || corpus.getUnigramCount(ids[i]) < minWordCount) {
+            return false;
+        }
+        if (minPairCount == 0 || ids.length == 1) {
+            return true;
+        }
+        return (i > 0 && corpus.getBigramCount(ids[i - 1], ids[i]) >= minPairCount)
+                || (i + 1 < ids.length && corpus.getBigramCount(ids[i], ids[i + 1]) >= minPairCount);
+    }
+}
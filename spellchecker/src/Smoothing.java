@@ -0,0 +1,56 @@
+
+/**
+ * A way of estimating the probability of a word given a neighbouring word
+ * from the bigram counts. The estimates are computed once per model by
+ * BigramModel, so a smoothing method may do as much work as it likes.
+ */
+public interface Smoothing {
+
+    /**
+     * Returns the estimator for the direction the statistics describe
+     */
+    Estimator prepare(BigramStatistics statistics);
+
+    /**
+     * Log probabilities of words given a context word. The log probability
+     * of a pair that was never seen must be the sum of a part for the
+     * context and a part for the word, so unseen pairs need no table.
+     */
+    interface Estimator {
+
+        /**
+         * Returns the log probability of word given context, for a pair seen
+         * count times
+         */
+        double logSeen(int contextId, int wordId, int count);
+
+        /**
+         * Returns the context part of the log probability of an unseen pair.
+         * contextId is -1 for an unknown word.
+         */
+        double logUnseenContext(int contextId);
+
+        /**
+         * Returns the word part of the log probability of an unseen pair.
+         * wordId is -1 for an unknown word.
+         */
+        double logUnseenWord(int wordId);
+    }
+
+    /**
+     * Returns the smoothing method with the given name: add-k, good-turing
+     * or kneser-ney
+     */
+    static Smoothing forName(String name) {
+        switch (name) {
+            case "add-k":
+                return new AddKSmoothing(CorpusReader.K);
+            case "good-turing":
+                return new GoodTuringSmoothing();
+            case "kneser-ney":
+                return new KneserNeySmoothing();
+            default:
+                throw new IllegalArgumentException("Unknown smoothing: " + name);
+        }
+    }
+}
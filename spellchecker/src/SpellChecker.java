@@ -1,5 +1,14 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 
 public class SpellChecker {
@@ -12,11 +21,32 @@ public class SpellChecker {
         boolean inPeach = true; // set this to true if you submit to peach!!!
         
         try {
-            CorpusReader cr = new CorpusReader();
-            ConfusionMatrixReader cmr = new ConfusionMatrixReader();
-            SpellCorrector sc = new SpellCorrector(cr, cmr);
+            if (args.length > 0 && args[0].equals("--compile")) {
+                compileModel(args.length > 1 ? args[1] : ModelImage.IMAGE_LOC);
+                return;
+            }
+
+            if (args.length > 2 && args[0].equals("--load-compare")) {
+                System.out.print(LoadHarness.compare(LoadHarness.readResult(new File(args[1])),
+                        LoadHarness.readResult(new File(args[2]))));
+                return;
+            }
+
+            SpellCorrector sc = loadCorrector();
             
-            if (inPeach) {
+            if (args.length > 0 && args[0].equals("--batch")) {
+                batchTest(sc, args.length > 1 ? args[1] : null);
+            } else if (args.length > 0 && args[0].equals("--document")) {
+                correctDocument(sc, args.length > 1 ? args[1] : null);
+            } else if (args.length > 0 && args[0].equals("--pruning-report")) {
+                pruningReport(sc, new CandidatePruning(args.length > 1 ? Integer.parseInt(args[1]) : 10,
+                        args.length > 2 ? Double.parseDouble(args[2]) : Double.POSITIVE_INFINITY));
+            } else if (args.length > 0 && args[0].equals("--load-test")) {
+                loadTest(sc, args);
+            } else if (args.length > 0 && args[0].equals("--server")) {
+                serve(sc, args.length > 1 ? Integer.parseInt(args[1]) : 8080,
+                        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+            } else if (inPeach) {
                 peachTest(sc);
             } else {
                 //nonPeachTest(sc);
@@ -28,6 +58,94 @@ public class SpellChecker {
         }
     }
     
+    /**
+     * Loads the model from the compiled image if it is up to date, otherwise
+     * from the text files. The system property spellchecker.smoothing
+     * selects the smoothing of word pairs: add-k (default), good-turing or
+     * kneser-ney. spellchecker.trigrams=true adds trigram scores.
+     * spellchecker.fastpath=true skips plausible words, see
+     * SpellCorrector.setFastPath; it may also be set to
+     * <minWordCount>,<minPairCount>. spellchecker.pruning=<maxCandidates>
+     * or <maxCandidates>,<maxScoreGap> prunes candidates, see
+     * CandidatePruning. spellchecker.candidates selects the candidate
+     * generation, e.g. automaton, and spellchecker.maxdistance the largest
+     * distance of a candidate. spellchecker.maxcorrections sets the maximum
+     * number of corrected words per phrase and spellchecker.deadline a time
+     * budget per phrase in milliseconds, see SpellCorrector.setTimeBudget.
+     */
+    static SpellCorrector loadCorrector() throws IOException {
+        FlightEvents.ModelLoad event = FlightEvents.get().beginModelLoad();
+        long start = System.nanoTime();
+
+        SpellCorrector sc = null;
+        String source = "image";
+        File image = new File(ModelImage.IMAGE_LOC);
+        if (ModelImage.isUpToDate(image)) {
+            try {
+                ModelImage model = ModelImage.read(image);
+                sc = new SpellCorrector(new CorpusReader(model), new ConfusionMatrixReader(model));
+            } catch (IOException | RuntimeException ex) {
+                // A damaged image is no reason to fail; the text files hold the same model
+                System.err.println("Cannot read " + image + ", loading the text files: " + ex.getMessage());
+            }
+        }
+        if (sc == null) {
+            sc = new SpellCorrector(new CorpusReader(), new ConfusionMatrixReader());
+            source = "text";
+        }
+        String smoothing = System.getProperty("spellchecker.smoothing");
+        if (smoothing != null) {
+            sc.getCorpusReader().setSmoothing(Smoothing.forName(smoothing));
+        }
+        sc.setTrigrams(Boolean.getBoolean("spellchecker.trigrams"));
+        String fastPath = System.getProperty("spellchecker.fastpath");
+        if (fastPath != null && fastPath.contains(",")) {
+            String[] thresholds = fastPath.split(",");
+            sc.setFastPath(new PlausibilityCheck(Integer.parseInt(thresholds[0].trim()),
+                    Integer.parseInt(thresholds[1].trim())));
+        } else {
+            sc.setFastPath(Boolean.parseBoolean(fastPath));
+        }
+        String pruning = System.getProperty("spellchecker.pruning");
+        if (pruning != null) {
+            String[] limits = pruning.split(",");
+            sc.setCandidatePruning(new CandidatePruning(Integer.parseInt(limits[0].trim()),
+                    limits.length > 1 ? Double.parseDouble(limits[1].trim()) : Double.POSITIVE_INFINITY));
+        }
+        String generation = System.getProperty("spellchecker.candidates");
+        if (generation != null) {
+            sc.setCandidateGeneration(SpellCorrector.CandidateGeneration.valueOf(generation.trim().toUpperCase()));
+        }
+        String maxDistance = System.getProperty("spellchecker.maxdistance");
+        if (maxDistance != null) {
+            sc.setMaxDistance(Integer.parseInt(maxDistance.trim()));
+        }
+        String maxCorrections = System.getProperty("spellchecker.maxcorrections");
+        if (maxCorrections != null) {
+            sc.setMaxCorrections(Integer.parseInt(maxCorrections.trim()));
+        }
+        String deadline = System.getProperty("spellchecker.deadline");
+        if (deadline != null) {
+            sc.setTimeBudget(Math.round(Double.parseDouble(deadline.trim()) * 1000), TimeUnit.MICROSECONDS);
+        }
+
+        CorrectionMetrics.get().recordModelLoad(System.nanoTime() - start);
+        if (event != null) {
+            event.commit(source);
+        }
+        return sc;
+    }
+
+    /**
+     * Reads the text files once and writes them as a compiled model image.
+     */
+    static void compileModel(String imageLocation) throws IOException {
+        CorpusReader cr = new CorpusReader();
+        ConfusionMatrixReader cmr = new ConfusionMatrixReader();
+        ModelImage.write(new File(imageLocation), cr, cmr);
+        System.out.println("Model written to " + imageLocation);
+    }
+    
     static void nonPeachTest(SpellCorrector sc) throws IOException { 
             String[] sentences = {
                 "this assay allowed us to measure a wide variety of conditions" ,
@@ -54,81 +172,98 @@ public class SpellChecker {
     
     private final static boolean DEBUG = false;
     
+    /**
+     * Training sentences with the expected answers in TRAINING_ANSWERS.
+     */
+    final static String[] TRAINING_SENTENCES = {
+        "this assay allowed us to measure a wide variety of conitions",
+        "at the hme locations there were traces of water",
+        "this assay allowed us to meassure a wide variety of conditions",
+        "this assay allowed us to measure a wide vareity of conditions",
+        "at the hoome locations there were traces of water",
+        "at the home locasions there were traces of water",
+        "the development of diabetes is present in moce that carry a transgen",
+        "the development of idabetes is present in mice that carry a transgen",
+        "the development of diabetes us present in mice that harry a transgene",
+        "boxing glowes shield the knockles not the head",
+        "boxing loves shield the knuckles nots the head",
+        "boing gloves shield the knuckles nut the head",
+        "she still refers to me has a friend but i fel i am treated quite badly",
+        "she still refers to me as a friendd but i feel i am traeted quite badly",
+        "she still refers too me as a friend but i feel i am treated quite batly",
+        "she still refers to me as a fiend but i feel i am treated quite badly",
+        "a repsonse may be any measurable biological parameter that is correlated witth the toxicant",
+        "a response may be any measurable biological prameter that is corelated with the toxicant",
+        "a respunse may be any measurable biologecal parameter that is correlated with the toxicant",
+        "a responses may be any measurable biological parametre that is correlated with the toxicant",
+        "esentially there has been no change in japan",
+        "essentially there has been no change in japan",
+        "essentially here has bien no change in japan",
+        "this advise is taking into consideration the fact that the govenrment bans political parties",
+        "this advices is taking into consideration the fact that the government bans political parties",
+        "this addvice is taking into consideration the fact that the goverment bans political parties",
+        "ancient china was one of the longst lasting societies iin the history of the world",
+        "ancient china was one of the longest lasting sosieties in the history of the world",
+        "anicent china was one of the longest lasting societties in the history of the world",
+        "ancient china wqs one of the longest lasting societies in the histori of the world",
+        "laying in the national footbal league was my dream",
+        "playing in the national football laegue was my draem",
+        "playing in the national fotball league was my dream"
+    };
+
+    final static String[] TRAINING_ANSWERS = {
+        "Answer: this assay allowed us to measure a wide variety of conditions",
+        "Answer: at the home locations there were traces of water",
+        "Answer: this assay allowed us to measure a wide variety of conditions",
+        "Answer: this assay allowed us to measure a wide variety of conditions",
+        "Answer: at the home locations there were traces of water",
+        "Answer: at the home locations there were traces of water",
+        "Answer: the development of diabetes is present in mice that carry a transgene",
+        "Answer: the development of diabetes is present in mice that carry a transgene",
+        "Answer: the development of diabetes is present in mice that carry a transgene",
+        "Answer: boxing gloves shield the knuckles not the head",
+        "Answer: boxing gloves shield the knuckles not the head",
+        "Answer: boxing gloves shield the knuckles not the head",
+        "Answer: she still refers to me as a friend but i feel i am treated quite badly",
+        "Answer: she still refers to me as a friend but i feel i am treated quite badly",
+        "Answer: she still refers to me as a friend but i feel i am treated quite badly",
+        "Answer: she still refers to me as a friend but i feel i am treated quite badly",
+        "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
+        "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
+        "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
+        "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
+        "Answer: essentially there has been no change in japan",
+        "Answer: essentially there has been no change in japan",
+        "Answer: essentially there has been no change in japan",
+        "Answer: this advice is taking into consideration the fact that the government bans political parties",
+        "Answer: this advice is taking into consideration the fact that the government bans political parties",
+        "Answer: this advice is taking into consideration the fact that the government bans political parties",
+        "Answer: ancient china was one of the longest lasting societies in the history of the world",
+        "Answer: ancient china was one of the longest lasting societies in the history of the world",
+        "Answer: ancient china was one of the longest lasting societies in the history of the world",
+        "Answer: ancient china was one of the longest lasting societies in the history of the world",
+        "Answer: playing in the national football league was my dream",
+        "Answer: playing in the national football league was my dream",
+        "Answer: playing in the national football league was my dream"
+    };
+
     /**
      * Function to test sentences.
      */
     static void peachTraining(SpellCorrector sc) throws IOException { 
-            String[] sentences = {
-                "this assay allowed us to measure a wide variety of conitions",
-                "at the hme locations there were traces of water",
-                "this assay allowed us to meassure a wide variety of conditions",
-                "this assay allowed us to measure a wide vareity of conditions",
-                "at the hoome locations there were traces of water",
-                "at the home locasions there were traces of water",
-                "the development of diabetes is present in moce that carry a transgen",
-                "the development of idabetes is present in mice that carry a transgen",
-                "the development of diabetes us present in mice that harry a transgene",
-                "boxing glowes shield the knockles not the head",
-                "boxing loves shield the knuckles nots the head",
-                "boing gloves shield the knuckles nut the head",
-                "she still refers to me has a friend but i fel i am treated quite badly",
-                "she still refers to me as a friendd but i feel i am traeted quite badly",
-                "she still refers too me as a friend but i feel i am treated quite batly",
-                "she still refers to me as a fiend but i feel i am treated quite badly",
-                "a repsonse may be any measurable biological parameter that is correlated witth the toxicant",
-                "a response may be any measurable biological prameter that is corelated with the toxicant",
-                "a respunse may be any measurable biologecal parameter that is correlated with the toxicant",
-                "a responses may be any measurable biological parametre that is correlated with the toxicant",
-                "esentially there has been no change in japan",
-                "essentially there has been no change in japan",
-                "essentially here has bien no change in japan",
-                "this advise is taking into consideration the fact that the govenrment bans political parties",
-                "this advices is taking into consideration the fact that the government bans political parties",
-                "this addvice is taking into consideration the fact that the goverment bans political parties",
-                "ancient china was one of the longst lasting societies iin the history of the world",
-                "ancient china was one of the longest lasting sosieties in the history of the world",
-                "anicent china was one of the longest lasting societties in the history of the world",
-                "ancient china wqs one of the longest lasting societies in the histori of the world",
-                "laying in the national footbal league was my dream",
-                "playing in the national football laegue was my draem",
-                "playing in the national fotball league was my dream"
-            };
-            
-            String[] correctSentences = {
-                "Answer: this assay allowed us to measure a wide variety of conditions",
-                "Answer: at the home locations there were traces of water",
-                "Answer: this assay allowed us to measure a wide variety of conditions",
-                "Answer: this assay allowed us to measure a wide variety of conditions",
-                "Answer: at the home locations there were traces of water",
-                "Answer: at the home locations there were traces of water",
-                "Answer: the development of diabetes is present in mice that carry a transgene",
-                "Answer: the development of diabetes is present in mice that carry a transgene",
-                "Answer: the development of diabetes is present in mice that carry a transgene",
-                "Answer: boxing gloves shield the knuckles not the head",
-                "Answer: boxing gloves shield the knuckles not the head",
-                "Answer: boxing gloves shield the knuckles not the head",
-                "Answer: she still refers to me as a friend but i feel i am treated quite badly",
-                "Answer: she still refers to me as a friend but i feel i am treated quite badly",
-                "Answer: she still refers to me as a friend but i feel i am treated quite badly",
-                "Answer: she still refers to me as a friend but i feel i am treated quite badly",
-                "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
-                "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
-                "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
-                "Answer: a response may be any measurable biological parameter that is correlated with the toxicant",
-                "Answer: essentially there has been no change in japan",
-                "Answer: essentially there has been no change in japan",
-                "Answer: essentially there has been no change in japan",
-                "Answer: this advice is taking into consideration the fact that the government bans political parties",
-                "Answer: this advice is taking into consideration the fact that the government bans political parties",
-                "Answer: this advice is taking into consideration the fact that the government bans political parties",
-                "Answer: ancient china was one of the longest lasting societies in the history of the world",
-                "Answer: ancient china was one of the longest lasting societies in the history of the world",
-                "Answer: ancient china was one of the longest lasting societies in the history of the world",
-                "Answer: ancient china was one of the longest lasting societies in the history of the world",
-                "Answer: playing in the national football league was my dream",
-                "Answer: playing in the national football league was my dream",
-                "Answer: playing in the national football league was my dream"
-            };
+            System.out.println("Score: " + trainingScore(sc) + "/" + TRAINING_SENTENCES.length);
+            if (DEBUG) {
+                System.out.println("Similar words cache: " + sc.getSimilarWordsCache());
+                System.out.println("Metrics: " + CorrectionMetrics.get());
+            }
+    }
+
+    /**
+     * Returns the number of training sentences corrected to their answer
+     */
+    static int trainingScore(SpellCorrector sc) {
+            String[] sentences = TRAINING_SENTENCES;
+            String[] correctSentences = TRAINING_ANSWERS;
             
             int correctPhrases = 0;
             int totalPhrases = 0;
@@ -150,10 +285,93 @@ public class SpellChecker {
                 }
                 totalPhrases ++;
             }
-            
-            System.out.println("Score: " + correctPhrases + "/" + totalPhrases);
+            return correctPhrases;
+    }
+
+    /**
+     * Corrects the training sentences without and with pruning and prints
+     * the size of the search and the score of each.
+     */
+    static void pruningReport(SpellCorrector sc, CandidatePruning pruning) {
+        CorrectionMetrics metrics = CorrectionMetrics.get();
+        boolean wasEnabled = metrics.isEnabled();
+        metrics.setEnabled(true);
+        for (CandidatePruning setting : new CandidatePruning[]{null, pruning}) {
+            sc.setCandidatePruning(setting);
+            trainingScore(sc); // warm up, e.g. the similar words cache
+            metrics.reset();
+            int score = trainingScore(sc);
+            System.out.printf("%s: score %d/%d, candidates per word %.1f, transitions per phrase %.1f,"
+                    + " mean %.1fus, decoding %.1fus%n",
+                    setting == null ? "No pruning" : "Pruning to " + setting.getMaxCandidates()
+                    + " within " + setting.getMaxScoreGap(),
+                    score, TRAINING_SENTENCES.length, metrics.getCandidatesPerWordMean(),
+                    metrics.getTransitionsScoredPerPhraseMean(), metrics.getTotalMeanMicros(),
+                    metrics.getDecodingMeanMicros());
+        }
+        metrics.setEnabled(wasEnabled);
     }
     
+    /**
+     * Replays labelled phrases with LoadHarness and writes the result as
+     * JSON. Arguments after --load-test: [phrases answers [threads [rate
+     * [requests [output]]]]]. Without files the training sentences are used;
+     * threads default to the number of cores, rate to 0 (as fast as
+     * possible), requests to 20 rounds of the phrases and output to standard
+     * output. Two outputs can be compared with --load-compare first second.
+     */
+    static void loadTest(SpellCorrector sc, String[] args) throws IOException, InterruptedException {
+        LoadHarness harness;
+        if (args.length > 2) {
+            harness = LoadHarness.fromFiles(sc, new File(args[1]), new File(args[2]));
+        } else {
+            harness = new LoadHarness(sc, TRAINING_SENTENCES, TRAINING_ANSWERS);
+        }
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        double rate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        int requests = args.length > 5 ? Integer.parseInt(args[5]) : 20 * harness.size();
+
+        String json = harness.run(threads, rate, requests, 2 * harness.size()).toJson();
+        if (args.length > 6) {
+            Files.write(Paths.get(args[6]), json.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    /**
+     * Corrects every line of file, or of standard input if file is null, on
+     * all available cores and prints the answers in input order.
+     */
+    static void batchTest(SpellCorrector sc, String file) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        InputStream in = file == null ? System.in : new FileInputStream(file);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            new BatchCorrector(sc, threads, 64 * threads).run(reader, System.out);
+        }
+    }
+
+    /**
+     * Corrects the running text of file, or of standard input if file is
+     * null, and writes it to standard output.
+     */
+    static void correctDocument(SpellCorrector sc, String file) throws IOException {
+        try (InputStream in = file == null ? System.in : new FileInputStream(file)) {
+            new DocumentCorrector(sc).correct(in, System.out);
+        }
+    }
+
+    /**
+     * Serves corrections over HTTP on port with the given number of threads
+     * until the JVM is stopped.
+     */
+    static void serve(SpellCorrector sc, int port, int threads) throws IOException {
+        CorrectionServer server = new CorrectionServer(sc, port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+        server.start();
+        System.out.println("Serving corrections on " + server.getAddress() + CorrectionServer.PATH);
+    }
+
     static void peachTest(SpellCorrector sc) throws IOException {
             Scanner input = new Scanner(System.in);
             
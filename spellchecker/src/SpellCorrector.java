@@ -1,47 +1,282 @@
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Corrects phrases using a noisy channel model. An instance only reads its
+ * CorpusReader and ConfusionMatrixReader, so it can be shared by any number
+ * of threads. learn updates both readers, which other threads may keep
+ * reading meanwhile: every phrase is scored from one Epoch, the state of
+ * both readers, and learn publishes its two updates as one epoch.
+ */
 public class SpellCorrector {
 
     final private CorpusReader cr;
     final private ConfusionMatrixReader cmr;
+    final private BoundedCache<String, Map<String, Edit[]>> similarWordsCache; // similar loaded words per input word, with their edits
+    private volatile Epoch epoch; // the state of both readers that phrases are scored from
+
+    final static int DEFAULT_CACHE_SIZE = 10000; // maximum number of cached words
 
     public SpellCorrector(CorpusReader cr, ConfusionMatrixReader cmr) {
+        this(cr, cmr, DEFAULT_CACHE_SIZE, BoundedCache.Eviction.LEAST_RECENTLY_USED);
+    }
+
+    /**
+     * @param cacheSize maximum number of entries in the similar words cache, 0
+     * disables caching
+     * @param eviction which entry the cache drops when it is full
+     */
+    public SpellCorrector(CorpusReader cr, ConfusionMatrixReader cmr, int cacheSize, BoundedCache.Eviction eviction) {
         this.cr = cr;
         this.cmr = cmr;
+        this.similarWordsCache = new BoundedCache<>(cacheSize, eviction);
+        this.epoch = new Epoch(cr.getSnapshot(), cmr.getTable());
+    }
+
+    /**
+     * A snapshot of the corpus together with a table of the confusion
+     * matrix, which a phrase or lattice is scored from as a whole
+     */
+    static final class Epoch {
+
+        final CorpusReader.Snapshot corpus;
+        final ConfusionMatrixReader.Table confusion;
+
+        Epoch(CorpusReader.Snapshot corpus, ConfusionMatrixReader.Table confusion) {
+            this.corpus = corpus;
+            this.confusion = confusion;
+        }
+    }
+
+    /**
+     * Returns the epoch to score a phrase from. Updates made to the readers
+     * other than by learn are taken over under the lock that learn holds
+     * across both of its updates, so an epoch never has one of them without
+     * the other.
+     */
+    Epoch currentEpoch() {
+        Epoch current = epoch;
+        if (current.corpus != cr.getSnapshot() || current.confusion != cmr.getTable()) {
+            synchronized (cr) {
+                current = new Epoch(cr.getSnapshot(), cmr.getTable());
+                epoch = current;
+            }
+        }
+        return current;
     }
 
     final private double LAMBDA = 0.35; // importance confusion matrix
     private final double NO_ERROR = 0.90; // probability no mistake in word
+    private final double LOG_NO_ERROR = Math.log(NO_ERROR);
+    final static int MAX_CORRECTIONS = 2; // maximum number of corrected words in a phrase
+    final private static Edit[] NO_EDITS = new Edit[0];
+
+    private volatile int beamWidth = 0; // states kept per word by the decoder, 0 keeps all
+    private volatile CandidateGeneration candidateGeneration = CandidateGeneration.DELETE_INDEX;
+    private volatile boolean trigrams = false; // score each word given the two words before it
+    private volatile PlausibilityCheck fastPath; // null searches candidates for every word
+    private volatile CandidatePruning pruning; // null keeps all candidates
+    private volatile int maxCorrections = MAX_CORRECTIONS;
+    private volatile long timeBudgetNanos; // of correctPhrase, 0 for no limit
+    private volatile int maxDistance = 1; // Damerau-Levenshtein distance of the similar words
+
+    /**
+     * Ways to find the similar words of a word. All find the same words.
+     */
+    public enum CandidateGeneration {
+        /**
+         * Look up the symmetric delete index, then verify the few candidates
+         */
+        DELETE_INDEX,
+        /**
+         * Compare with every vocabulary word of about the same length, using
+         * all cores. Needs no index, but does far more comparisons. At
+         * distance 1 many words are compared at once, see ColumnarVerifier.
+         */
+        LENGTH_SCAN,
+        /**
+         * Walk the vocabulary automaton along with a Levenshtein automaton of
+         * the word, skipping every branch that cannot come within distance.
+         * Cheap enough for a maximum distance of 2.
+         */
+        AUTOMATON
+    }
+
+    /**
+     * Limits the number of states the decoder keeps per word. Only needed for
+     * very long phrases; 0 (the default) gives the exact best phrase.
+     */
+    public void setBeamWidth(int beamWidth) {
+        if (beamWidth < 0) {
+            throw new IllegalArgumentException("Beam width must be non-negative.");
+        }
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * Selects how similar words are found, DELETE_INDEX by default
+     */
+    public void setCandidateGeneration(CandidateGeneration candidateGeneration) {
+        this.candidateGeneration = candidateGeneration;
+    }
+
+    /**
+     * Sets the largest Damerau-Levenshtein distance of the similar words of
+     * a word, 1 by default. The delete index only covers distance 1, so for
+     * larger distances DELETE_INDEX uses the automaton as well. Every
+     * correction still needs its edits in the confusion matrix. Clears the
+     * similar words cache.
+     */
+    public void setMaxDistance(int maxDistance) {
+        if (maxDistance < 1) {
+            throw new IllegalArgumentException("Maximum distance must be at least 1.");
+        }
+        this.maxDistance = maxDistance;
+        similarWordsCache.clear();
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Scores every word from the third on given the two words before it as
+     * well, backing off to the bigram and unigram scores for contexts
+     * without trigram counts. Off by default. The decoder then keeps a state
+     * per pair of candidates, so phrases with many candidates per word take
+     * longer. This applies to suggestPhrases and suggestWords as well.
+     * The trigram scores are frozen at load: learn only changes the bigram
+     * scores they back off to, see TrigramModel.
+     */
+    public void setTrigrams(boolean trigrams) {
+        if (trigrams) {
+            cr.getTrigramModel(); // build it now rather than on the first phrase
+        }
+        this.trigrams = trigrams;
+    }
+
+    /**
+     * Only searches candidates for the words check finds suspicious and
+     * their neighbours; the other words of a phrase stay as they are, and a
+     * phrase without suspicious words is returned without decoding. This
+     * also applies to DocumentCorrector, suggestPhrases and suggestWords,
+     * which then only suggest other words for the words searched. null, the
+     * default, searches every word. The phrases skipped are counted by
+     * CorrectionMetrics.
+     */
+    public void setFastPath(PlausibilityCheck check) {
+        this.fastPath = check;
+    }
+
+    /**
+     * Turns the fast path on with PlausibilityCheck.DEFAULT, or off
+     */
+    public void setFastPath(boolean enabled) {
+        setFastPath(enabled ? PlausibilityCheck.DEFAULT : null);
+    }
+
+    /**
+     * Drops the candidates pruning ranks as hopeless before the phrase
+     * search, in every kind of correction. null, the default, keeps all
+     * candidates. CorrectionMetrics reports the fraction kept.
+     */
+    public void setCandidatePruning(CandidatePruning pruning) {
+        this.pruning = pruning;
+    }
+
+    /**
+     * Sets the maximum number of corrected words in a phrase, or in a
+     * window of DocumentCorrector; MAX_CORRECTIONS by default. No two
+     * corrected words may be adjacent, whatever the maximum.
+     */
+    public void setMaxCorrections(int maxCorrections) {
+        if (maxCorrections < 0) {
+            throw new IllegalArgumentException("Maximum number of corrections must be non-negative.");
+        }
+        this.maxCorrections = maxCorrections;
+    }
+
+    public int getMaxCorrections() {
+        return maxCorrections;
+    }
+
+    /**
+     * Makes correctPhrase(String) return the best phrase it found within
+     * timeout, see correctPhrase(String, long, TimeUnit). 0, the default,
+     * searches until done. suggestPhrases and suggestWords ignore it and
+     * always search until done, since a partial search cannot rank the
+     * phrases it did not reach.
+     */
+    public void setTimeBudget(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Time budget must be non-negative.");
+        }
+        this.timeBudgetNanos = unit.toNanos(timeout);
+    }
+
+    boolean isUsingTrigrams() {
+        return trigrams;
+    }
 
     public String correctPhrase(String phrase) {
         if (phrase == null || phrase.length() == 0) {
             throw new IllegalArgumentException("Phrase must be non-empty.");
         }
+        long budget = timeBudgetNanos;
+        if (budget > 0) {
+            return correctPhrase(phrase, budget, TimeUnit.NANOSECONDS).getPhrase();
+        }
 
-        List<String> words = Arrays.asList(phrase.split(" "));
-
-        // For each word in phrase collect all similar words
-        // To prevent duplicates we use a Set
-        Set<String> wordsAsSet = new HashSet(words);
-        Map<String, Set<String>> similarWordsPerWord = wordsAsSet.stream()
-                .collect(Collectors.toMap(word -> word, word -> getSimilarWords(word)));
+        // Only measure the stages if someone is listening
+        FlightEvents.PhraseCorrection event = FlightEvents.get().beginPhraseCorrection();
+        boolean measure = CorrectionMetrics.isRecording() || event != null;
+        long start = measure ? System.nanoTime() : 0;
 
-        // Get all possible alternative phrases to the input phrase
-        List<String> possiblePhrases = getPossiblePhrases(words, similarWordsPerWord, 2, false);
+        Epoch current = currentEpoch();
+        String[] words = phrase.split(" ");
+        PlausibilityCheck check = fastPath;
+        boolean[] search = check == null ? null : check.findPositionsToSearch(current.corpus, words);
+        int searched = search == null ? words.length : count(search);
+        if (check != null && CorrectionMetrics.isRecording()) {
+            CorrectionMetrics.get().recordPlausibilityCheck(words.length, searched);
+        }
+        if (search != null && searched == 0) {
+            // Every word is plausible, so the phrase stays as it is
+            if (measure) {
+                recordFastPath(event, words, System.nanoTime() - start);
+            }
+            return String.join(" ", words).trim();
+        }
+        Edit[][][] edits = new Edit[words.length][][];
+        String[][] candidates = getCandidates(current, words, search, edits);
+        long candidatesFound = measure ? System.nanoTime() : 0;
 
         // Find phrase with highest probability of being correct
-        double bestProbability = Double.NEGATIVE_INFINITY;
-        String bestPhrase = ""; // bestPhrase until now
-        for (String possiblePhrase : possiblePhrases) {
-            double probability = calculateProbabilityCorrectedPhrase(phrase, possiblePhrase);
-            if (probability > bestProbability) {
-                bestProbability = probability;
-                bestPhrase = possiblePhrase; // new bestPhrase
+        PhraseDecoder decoder = new PhraseDecoder(this, cr, maxCorrections, beamWidth);
+        CandidateLattice lattice = createLattice(current, words, candidates, edits);
+        candidates = lattice.candidates;
+        String bestPhrase = decoder.decode(lattice);
+
+        if (measure) {
+            long decoded = System.nanoTime();
+            if (CorrectionMetrics.isRecording()) {
+                CorrectionMetrics.get().recordPhrase(candidates, candidatesFound - start,
+                        decoded - candidatesFound, decoder.getTransitionsScored());
+            }
+            if (event != null && event.shouldCommit()) {
+                event.commit(words.length, searched, Arrays.stream(candidates).mapToInt(c -> c.length).sum(),
+                        decoder.getTransitionsScored(), candidatesFound - start, decoded - candidatesFound);
             }
         }
 
@@ -49,138 +284,529 @@ public class SpellCorrector {
         return bestPhrase.trim();
     }
 
-    private double calculateProbabilityCorrectedPhrase(String originalPhrase, String correctedPhrase) {
-        String[] originalWords = originalPhrase.split(" ");
-        String[] correctedWords = correctedPhrase.split(" ");
+    /**
+     * Corrects phrase within timeout and returns the best phrase found,
+     * searching the most promising corrections first. Candidates are first
+     * searched for the words PlausibilityCheck.DEFAULT finds suspicious and
+     * their neighbours, and that phrase is decoded; then for the other
+     * words, and the whole phrase is decoded again. Both stop at the
+     * deadline, and the best phrase found until then is returned: the phrase
+     * itself if no decoding finished. A finished search gives the phrase
+     * correctPhrase gives without a time limit, except that a phrase that
+     * cannot be corrected at all is returned as it is.
+     */
+    public CorrectionResult correctPhrase(String phrase, long timeout, TimeUnit unit) {
+        if (phrase == null || phrase.length() == 0) {
+            throw new IllegalArgumentException("Phrase must be non-empty.");
+        }
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+
+        Epoch current = currentEpoch();
+        String[] words = phrase.split(" ");
+        PlausibilityCheck check = fastPath;
+        boolean[] search = check == null ? null : check.findPositionsToSearch(current.corpus, words);
+        boolean[] promising = PlausibilityCheck.DEFAULT.findPositionsToSearch(current.corpus, words);
 
-        double probability = 0;
-        // For each word
-        for (int i = 0; i < correctedWords.length; i++) {
-            String originalWord = originalWords[i];
-            String correctedWord = correctedWords[i];
+        String[][] candidates = new String[words.length][];
+        Edit[][][] edits = new Edit[words.length][][];
+        for (int i = 0; i < words.length; i++) {
+            keepWord(words, candidates, edits, i);
+        }
+        String best = String.join(" ", words).trim();
+        PhraseDecoder decoder = new PhraseDecoder(this, cr, maxCorrections, beamWidth);
+        decoder.setDeadline(deadline);
+        boolean complete = true;
+        long generation = 0;
 
-            // Get probability of current word given previous word            
-            double prevValue = 1.0; // if no previous word, use 1.0
-            if (i > 0) {
-                prevValue = cr.getProbabiltyGivenPrev(correctedWord, correctedWords[i - 1]);
+        rounds:
+        for (int round = 0; round < 2; round++) {
+            long roundStart = System.nanoTime();
+            boolean searched = false;
+            for (int i = 0; i < words.length; i++) {
+                if ((search != null && !search[i]) || promising[i] != (round == 0)) {
+                    continue;
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    complete = false;
+                    break rounds;
+                }
+                putCandidates(candidates, edits, i, getCachedSimilarWords(current, words[i]));
+                if (candidates[i].length == 0) {
+                    keepWord(words, candidates, edits, i);
+                }
+                searched = true;
+            }
+            generation += System.nanoTime() - roundStart;
+            if (!searched) {
+                continue;
+            }
+
+            CandidateLattice lattice = createLattice(current, words, candidates, edits);
+            int[] path = decoder.bestPath(lattice);
+            if (decoder.isExpired()) {
+                complete = false;
+                break;
+            }
+            if (path != null) {
+                best = lattice.phrase(path).trim();
             }
-            // Get probability of current word given next word
-            double nextValue = 1.0; // if no next word, use 1.0
-            if (i < correctedWords.length - 1) {
-                nextValue = cr.getProbabilityGivenNext(correctedWord, correctedWords[i + 1]);
+        }
+
+        if (CorrectionMetrics.isRecording()) {
+            CorrectionMetrics metrics = CorrectionMetrics.get();
+            metrics.recordPhrase(candidates, generation, System.nanoTime() - start - generation,
+                    decoder.getTransitionsScored());
+            metrics.recordDeadline(complete);
+        }
+        return new CorrectionResult(best, complete);
+    }
+
+    private static int count(boolean[] values) {
+        int count = 0;
+        for (boolean value : values) {
+            count += value ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Records a phrase that took the fast path, with the word itself as its
+     * only candidate
+     */
+    private void recordFastPath(FlightEvents.PhraseCorrection event, String[] words, long checking) {
+        if (CorrectionMetrics.isRecording()) {
+            String[][] candidates = new String[words.length][];
+            for (int i = 0; i < words.length; i++) {
+                candidates[i] = new String[]{words[i]};
             }
+            CorrectionMetrics.get().recordPhrase(candidates, checking, 0, 0);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.commit(words.length, 0, words.length, 0, checking, 0);
+        }
+    }
 
-            // Get probability of corrected word by looking at how many times it occurs
-            double correctedWordProbability = cr.getProbability(correctedWord);
+    /**
+     * Returns the corrected phrases of phrase from the highest score
+     * downwards. Phrases are found as they are asked for, so taking the first
+     * few costs little more than correctPhrase. The candidates and scores are
+     * those of correctPhrase, with trigrams, the fast path and pruning as
+     * set, but the search ignores the time budget and the beam width. The
+     * first phrase therefore has the score of the phrase correctPhrase
+     * returns without those limits; it may differ from it only when two
+     * phrases have exactly the same score.
+     */
+    public Iterator<Suggestion> suggestPhrases(String phrase) {
+        return new NBestDecoder(buildLattice(phrase), maxCorrections);
+    }
 
-            // Calculate value for the noisy channel model
-            double noisyChannelValue;
-            if (correctedWord.equals(originalWord)) {
-                noisyChannelValue = NO_ERROR; // use NO_ERROR constant when word is same as original word
+    /**
+     * Returns at most k corrected phrases of phrase, best first
+     */
+    public List<Suggestion> suggestPhrases(String phrase, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Number of suggestions must be non-negative.");
+        }
+        List<Suggestion> result = new ArrayList<>(k);
+        Iterator<Suggestion> phrases = suggestPhrases(phrase);
+        while (result.size() < k && phrases.hasNext()) {
+            result.add(phrases.next());
+        }
+        return result;
+    }
+
+    /**
+     * Returns for every word of phrase its candidates, best first. A
+     * candidate is scored by the best corrected phrase that contains it.
+     */
+    public List<List<Suggestion>> suggestWords(String phrase) {
+        return new NBestDecoder(buildLattice(phrase), maxCorrections).getWordSuggestions();
+    }
+
+    /**
+     * Returns the lattice correctPhrase decodes for phrase, without a time
+     * budget
+     */
+    private CandidateLattice buildLattice(String phrase) {
+        if (phrase == null || phrase.length() == 0) {
+            throw new IllegalArgumentException("Phrase must be non-empty.");
+        }
+        Epoch current = currentEpoch();
+        String[] words = phrase.split(" ");
+        PlausibilityCheck check = fastPath;
+        boolean[] search = check == null ? null : check.findPositionsToSearch(current.corpus, words);
+        Edit[][][] edits = new Edit[words.length][][];
+        String[][] candidates = getCandidates(current, words, search, edits);
+        return createLattice(current, words, candidates, edits);
+    }
+
+    /**
+     * Corrects a run of words taken from running text and returns the
+     * chosen word for every position. Locked words, e.g. the word before the
+     * run that was already written, are kept as they are. So is a word with
+     * no similar words at all. If the run has more unknown words than may be
+     * corrected, unknown words may stay as well.
+     */
+    String[] correctWords(String[] words, boolean[] locked) {
+        Epoch current = currentEpoch();
+        PlausibilityCheck check = fastPath;
+        boolean[] search = check == null ? null : check.findPositionsToSearch(current.corpus, words);
+        if (check != null && CorrectionMetrics.isRecording()) {
+            CorrectionMetrics.get().recordPlausibilityCheck(words.length, count(search));
+        }
+        String[][] candidates = new String[words.length][];
+        Edit[][][] edits = new Edit[words.length][][];
+        for (int i = 0; i < words.length; i++) {
+            if (locked[i] || (search != null && !search[i])) {
+                keepWord(words, candidates, edits, i);
             } else {
-                // Get probability of corrected word compared to original word using the confusion matrix
-                double correctionProbability = cmr.getProbabilityCorrection(originalWord, correctedWord);
-                // LAMBDA can be used to tweak the importance of the confusion matrix
-                noisyChannelValue = correctedWordProbability * Math.pow(correctionProbability, LAMBDA);
+                putCandidates(candidates, edits, i, getCachedSimilarWords(current, words[i]));
+                if (candidates[i].length == 0) {
+                    keepWord(words, candidates, edits, i);
+                }
             }
+        }
 
-            // Multiply the probabilities to get the chance
-            double chance = noisyChannelValue * prevValue * nextValue;
+        PhraseDecoder decoder = new PhraseDecoder(this, cr, maxCorrections, beamWidth);
+        CandidateLattice lattice = createLattice(current, words, candidates, edits);
+        candidates = lattice.candidates;
+        int[] path = decoder.bestPath(lattice);
+        if (path == null) {
+            // Too many forced corrections: let every word stay as it is
+            candidates = candidates.clone();
+            for (int i = 0; i < words.length; i++) {
+                if (!Arrays.asList(candidates[i]).contains(words[i])) {
+                    candidates[i] = Arrays.copyOf(candidates[i], candidates[i].length + 1);
+                    candidates[i][candidates[i].length - 1] = words[i];
+                }
+            }
+            lattice = new CandidateLattice(this, current, words, candidates, null, null);
+            path = decoder.bestPath(lattice);
+        }
 
-            // Logarithms of the chances are summed to prevent rounding errors
-            probability += Math.log(chance); 
+        String[] result = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = candidates[i][path[i]];
         }
+        return result;
+    }
 
-        return probability;
+    /**
+     * Returns the lattice of the candidates the pruning keeps, if any
+     */
+    private CandidateLattice createLattice(Epoch epoch, String[] words, String[][] candidates, Edit[][][] edits) {
+        CandidatePruning current = pruning;
+        CandidateLattice lattice = new CandidateLattice(this, epoch, words, candidates, edits, current);
+        if (current != null && CorrectionMetrics.isRecording()) {
+            CorrectionMetrics.get().recordPruning(candidates, lattice.candidates);
+        }
+        return lattice;
     }
 
     /**
-     * Returns list of all possible corrected phrases for {@code phrase}. At
-     * most two non-consecutive words in the phrase are be corrected.
+     * Returns for each word all similar words, or only the word itself if
+     * search is given and false for it. Fills edits with the edits from each
+     * word to each of its candidates.
      */
-    private List<String> getPossiblePhrases(List<String> phrase, Map<String, Set<String>> similarWords,
-            int correctionsLeft, boolean prevWasCorrection) {
-        // BASE
-        if (phrase.isEmpty()) {
-            return Arrays.asList("");
+    private String[][] getCandidates(Epoch epoch, String[] words, boolean[] search, Edit[][][] edits) {
+        List<String> searchedWords = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            if (search == null || search[i]) {
+                searchedWords.add(words[i]);
+            }
+        }
+        Map<String, Map<String, Edit[]>> similarWordsPerWord = getSimilarWordsPerWord(epoch, searchedWords);
+        String[][] candidates = new String[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            if (search == null || search[i]) {
+                putCandidates(candidates, edits, i, similarWordsPerWord.get(words[i]));
+            } else {
+                keepWord(words, candidates, edits, i);
+            }
         }
+        return candidates;
+    }
 
-        // STEP
-        String firstWord = phrase.get(0);
-        List<String> remainingPhrase = phrase.subList(1, phrase.size());
-        return similarWords.get(firstWord).stream() // for all similar words of first word
-                // Filter out non-similar words if no correction is allowed
-                .filter(similarWord -> (similarWord.equals(firstWord) || (correctionsLeft > 0 && !prevWasCorrection)))
-                .flatMap(similarWord -> {
-                    // Get all possible phrases that may follow any similar word for first word
-                    List<String> possiblePhrases;
-                    if (similarWord.equals(firstWord)) { // is same word
-                        possiblePhrases = getPossiblePhrases(remainingPhrase, similarWords, correctionsLeft, false);
-                    } else { // is correction
-                        possiblePhrases = getPossiblePhrases(remainingPhrase, similarWords, correctionsLeft - 1, true);
-                    }
+    private static void putCandidates(String[][] candidates, Edit[][][] edits, int i, Map<String, Edit[]> similarWords) {
+        candidates[i] = new String[similarWords.size()];
+        edits[i] = new Edit[similarWords.size()][];
+        int j = 0;
+        for (Map.Entry<String, Edit[]> similarWord : similarWords.entrySet()) {
+            candidates[i][j] = similarWord.getKey();
+            edits[i][j++] = similarWord.getValue();
+        }
+    }
 
-                    // Return full sentence as String
-                    return possiblePhrases.stream()
-                    .map(possiblePhrase -> similarWord + " " + String.join(" ", possiblePhrase));
-                })
-                .collect(Collectors.toList());
+    /**
+     * Makes the word at i its only candidate
+     */
+    private static void keepWord(String[] words, String[][] candidates, Edit[][][] edits, int i) {
+        candidates[i] = new String[]{words[i]};
+        edits[i] = new Edit[][]{NO_EDITS};
     }
 
     /**
-     * Returns list of words which have a Damerau-Levenshtein distance of at
-     * most 1 from inputWord.
+     * Corrects phrase by scoring every possible corrected phrase from the
+     * lattice. Gives the same answer as correctPhrase, but its cost grows
+     * exponentially with the phrase length. Kept as a reference for the
+     * decoder.
+     */
+    String correctPhraseExhaustive(String phrase) {
+        if (phrase == null || phrase.length() == 0) {
+            throw new IllegalArgumentException("Phrase must be non-empty.");
+        }
+
+        Epoch current = currentEpoch();
+        String[] words = phrase.split(" ");
+        Edit[][][] edits = new Edit[words.length][][];
+        CandidateLattice lattice = new CandidateLattice(this, current, words, getCandidates(current, words, null, edits),
+                edits, null);
+
+        // Find phrase with highest probability of being correct
+        int[] best = new int[words.length];
+        double bestProbability = scorePossiblePhrases(lattice, 0, new int[words.length], 0, maxCorrections, false,
+                best, Double.NEGATIVE_INFINITY);
+        return bestProbability == Double.NEGATIVE_INFINITY ? "" : lattice.phrase(best);
+    }
+
+    private Map<String, Map<String, Edit[]>> getSimilarWordsPerWord(Epoch epoch, List<String> words) {
+        // To prevent duplicates we use a Set
+        Set<String> wordsAsSet = new HashSet<>(words);
+        // Scanning is slow enough to give every word its own fork/join task
+        Stream<String> stream = candidateGeneration == CandidateGeneration.LENGTH_SCAN
+                ? wordsAsSet.parallelStream() : wordsAsSet.stream();
+        return stream
+                .collect(Collectors.toMap(word -> word,
+                        word -> getCachedSimilarWords(epoch, word)));
+    }
+
+    /**
+     * Returns the log probability of the noisy channel model for writing
+     * originalWord when correctedWord was meant.
+     */
+    double emissionScore(String originalWord, String correctedWord) {
+        return emissionScore(originalWord, correctedWord, null);
+    }
+
+    /**
+     * Returns emissionScore(originalWord, correctedWord) given the edits
+     * from correctedWord to originalWord, as found with the candidates; null
+     * finds them again.
+     */
+    double emissionScore(String originalWord, String correctedWord, Edit[] edits) {
+        Epoch current = currentEpoch();
+        return emissionScore(current, originalWord, correctedWord, current.corpus.getWordId(correctedWord), edits);
+    }
+
+    /**
+     * Returns emissionScore(originalWord, correctedWord, edits) in epoch,
+     * given the id of correctedWord as well. The score is summed from
+     * logarithms computed beforehand, the log probability of the word at
+     * load and the log counts of the edits in the confusion matrix, so it
+     * takes no Math.log or Math.pow.
+     */
+    double emissionScore(Epoch epoch, String originalWord, String correctedWord, int correctedWordId, Edit[] edits) {
+        if (correctedWord.equals(originalWord)) {
+            return LOG_NO_ERROR; // use NO_ERROR constant when word is same as original word
+        }
+        if (edits == null) {
+            edits = DamerauLevenshtein.align(originalWord, correctedWord, Integer.MAX_VALUE);
+        }
+        // Noisy channel model: probability of the corrected word by how often it occurs, times that of
+        // the edits by the confusion matrix to the power LAMBDA, which tweaks its importance
+        return epoch.corpus.getLogProbability(correctedWordId)
+                + LAMBDA * epoch.confusion.getLogProbabilityCorrection(edits);
+    }
+
+    /**
+     * Returns the log probability of two neighbouring words, given by their
+     * ids: the probability of word given the previous word plus the
+     * probability of the previous word given the next word, in epoch.
      */
-    private Set<String> getSimilarWords(String inputWord) {
-        return this.cr.getVocabulary().stream() // for all words in vocabulary
-                .filter(word -> getDLDistance(inputWord, word) <= 1) // check if DL distance is at most 1
-                .collect(Collectors.toSet());
+    double transitionScore(Epoch epoch, int prevWordId, int wordId) {
+        return epoch.corpus.getBigramModel().logProbabilityPair(prevWordId, wordId);
     }
 
     /**
-     * Returns the Damerau-Levenshtein distance between strings a and b. Makes
-     * use of the dynamic programming algorithm.
+     * Returns what scoring a word given the two words before it adds to the
+     * transition score, which scores it given the word before it only. 0 if
+     * the two words were never seen together.
      */
-    private int getDLDistance(String a, String b) {
-        // Stop if a or b is empty
-        if (a.length() == 0) {
-            return b.length();
+    double trigramScore(Epoch epoch, int firstId, int secondId, int wordId) {
+        double bigram = epoch.corpus.getBigramModel().logProbabilityGivenPrev(wordId, secondId);
+        return cr.getTrigramModel().logProbability(firstId, secondId, wordId, bigram) - bigram;
+    }
+
+    /**
+     * Scores every possible corrected phrase that starts with the candidates
+     * chosen before position i, whose score is given, and copies the best
+     * one to best if it beats bestProbability. Returns the best score so far.
+     * At most correctionsLeft more non-consecutive words are corrected.
+     */
+    private double scorePossiblePhrases(CandidateLattice lattice, int i, int[] choice, double probability,
+            int correctionsLeft, boolean prevWasCorrection, int[] best, double bestProbability) {
+        // BASE
+        if (i == choice.length) {
+            if (probability > bestProbability) {
+                System.arraycopy(choice, 0, best, 0, choice.length); // new best phrase
+                return probability;
+            }
+            return bestProbability;
         }
-        if (b.length() == 0) {
-            return a.length();
+
+        // STEP: for all similar words of word i
+        for (int j = 0; j < lattice.candidates[i].length; j++) {
+            boolean isCorrection = lattice.isCorrection[i][j];
+            // Skip corrections if no correction is allowed
+            if (isCorrection && (correctionsLeft == 0 || prevWasCorrection)) {
+                continue;
+            }
+            choice[i] = j;
+            double score = probability + lattice.emission[i][j];
+            if (i > 0) {
+                score += lattice.transition(i, choice[i - 1], j);
+            }
+            if (i > 1 && lattice.trigrams) {
+                score += lattice.trigram(i, choice[i - 2], choice[i - 1], j);
+            }
+            bestProbability = scorePossiblePhrases(lattice, i + 1, choice, score,
+                    isCorrection ? correctionsLeft - 1 : correctionsLeft, isCorrection, best, bestProbability);
         }
+        return bestProbability;
+    }
+
+    public CorpusReader getCorpusReader() {
+        return cr;
+    }
+
+    public ConfusionMatrixReader getConfusionMatrixReader() {
+        return cmr;
+    }
 
-        // Initialize matrix
-        int[][] m = new int[b.length() + 1][a.length() + 1];
+    /**
+     * Returns the cache of similar words per input word
+     */
+    public BoundedCache<String, Map<String, Edit[]>> getSimilarWordsCache() {
+        return similarWordsCache;
+    }
 
-        // Fill in initial values
-        for (int i = 0; i <= b.length(); i++) {
-            m[i][0] = i;
+    /**
+     * Learns from a correction a user accepted: phrase is what was typed and
+     * accepted what it was corrected to, with the same number of words. The
+     * words and word pairs of accepted are counted once more, accepted words
+     * that are not in the vocabulary are added to it and every corrected word
+     * at distance 1 adds its edit to the confusion matrix. Phrases are
+     * scored either before or after both updates. Trigram counts are not
+     * learned, see setTrigrams.
+     */
+    public void learn(String phrase, String accepted) {
+        if (phrase == null || phrase.length() == 0 || accepted == null || accepted.length() == 0) {
+            throw new IllegalArgumentException("Phrases must be non-empty.");
         }
-        for (int j = 0; j <= a.length(); j++) {
-            m[0][j] = j;
+        String[] typedWords = phrase.split(" ");
+        String[] acceptedWords = accepted.split(" ");
+        if (typedWords.length != acceptedWords.length) {
+            throw new IllegalArgumentException("Phrases must have the same number of words.");
         }
 
-        // Fill in the rest of matrix
-        for (int i = 1; i <= b.length(); i++) {
-            for (int j = 1; j <= a.length(); j++) {
-                if (b.charAt(i - 1) == a.charAt(j - 1)) { // if characters are equal
-                    m[i][j] = m[i - 1][j - 1]; // no cost
-                } else if (i > 1 && j > 1 && // check if transposition is allowed
-                        b.charAt(i - 1) == a.charAt(j - 2) && 
-                        b.charAt(i - 2) == a.charAt(j - 1)) {
-                    m[i][j] = Math.min(m[i][j - 1] + 1,         // insertion
-                              Math.min(m[i - 1][j] + 1,         // deletion
-                              Math.min(m[i - 1][j - 1] + 1,     // substitution
-                                       m[i - 2][j - 2] + 1)));  // transposition 
-                } else {
-                    m[i][j] = Math.min(m[i][j - 1] + 1,         // insertion
-                              Math.min(m[i - 1][j] + 1,         // deletion
-                                       m[i - 1][j - 1] + 1));   // substitution
-                }
+        Set<String> newWords = new LinkedHashSet<>();
+        Map<String, Integer> nGramCounts = new HashMap<>();
+        Map<String, Integer> confusions = new HashMap<>();
+        for (int i = 0; i < acceptedWords.length; i++) {
+            String typed = typedWords[i];
+            String word = acceptedWords[i];
+            if (word.isEmpty()) {
+                throw new IllegalArgumentException("Phrases must not contain empty words.");
+            }
+            if (!cr.isInVocabulary(word)) {
+                newWords.add(word);
+            }
+            nGramCounts.merge(word, 1, Integer::sum);
+            if (i > 0) {
+                nGramCounts.merge(acceptedWords[i - 1] + " " + word, 1, Integer::sum);
+            }
+            Edit[] edits = DamerauLevenshtein.align(typed, word, 1);
+            if (edits != null && edits.length == 1) {
+                confusions.merge(edits[0].getKey(), 1, Integer::sum);
+            }
+        }
+
+        synchronized (cr) {
+            cr.update(newWords, nGramCounts);
+            if (!confusions.isEmpty()) {
+                cmr.update(confusions);
+            }
+            epoch = new Epoch(cr.getSnapshot(), cmr.getTable());
+        }
+    }
+
+    /**
+     * Returns the similar words of inputWord with their edits: those of the
+     * loaded vocabulary from the cache, and those added later looked up on
+     * every call, since the cache does not see updates.
+     */
+    private Map<String, Edit[]> getCachedSimilarWords(Epoch epoch, String inputWord) {
+        return withAddedWords(epoch, inputWord, similarWordsCache.get(inputWord, this::getLoadedSimilarWords));
+    }
+
+    /**
+     * Returns list of words which have a Damerau-Levenshtein distance of at
+     * most the maximum distance from inputWord, including words added by
+     * learn. Nothing is cached.
+     */
+    Set<String> getSimilarWords(String inputWord) {
+        return withAddedWords(currentEpoch(), inputWord, getLoadedSimilarWords(inputWord)).keySet();
+    }
+
+    /**
+     * Returns similarWords with the vocabulary words added until epoch
+     * within the maximum distance of inputWord
+     */
+    private Map<String, Edit[]> withAddedWords(Epoch epoch, String inputWord, Map<String, Edit[]> similarWords) {
+        int k = maxDistance;
+        int[] added = epoch.corpus.getAddedCandidates(inputWord, k);
+        if (added.length == 0) {
+            return similarWords;
+        }
+        Map<String, Edit[]> result = new HashMap<>(similarWords);
+        for (int id : added) {
+            String word = epoch.corpus.getWord(id);
+            Edit[] edits = DamerauLevenshtein.align(inputWord, word, k);
+            if (edits != null) {
+                result.put(word, edits);
             }
         }
+        return Collections.unmodifiableMap(result);
+    }
 
-        return m[b.length()][a.length()]; // return DL distance for a and b
+    /**
+     * Returns the words of the loaded vocabulary which have a
+     * Damerau-Levenshtein distance of at most the maximum distance from
+     * inputWord, with the edits from each of them to inputWord. With
+     * DELETE_INDEX only the words sharing a symmetric delete key with
+     * inputWord are aligned, which verifies the distance and finds the edits
+     * at once. With LENGTH_SCAN and AUTOMATON the distance is verified while
+     * searching and only the words found are aligned.
+     */
+    private Map<String, Edit[]> getLoadedSimilarWords(String inputWord) {
+        int k = maxDistance;
+        int[] ids;
+        if (candidateGeneration == CandidateGeneration.LENGTH_SCAN) {
+            ids = cr.getLengthShardedVocabulary().findWithinDistance(inputWord, k);
+        } else if (candidateGeneration == CandidateGeneration.AUTOMATON || k > 1) {
+            ids = cr.getVocabularyAutomaton().findWithinDistance(inputWord, k);
+        } else {
+            ids = cr.getCandidateIndex().getCandidates(inputWord); // all indexed candidates
+        }
+        Map<String, Edit[]> similarWords = new HashMap<>();
+        for (int id : ids) {
+            String word = cr.getWord(id);
+            Edit[] edits = DamerauLevenshtein.align(inputWord, word, k); // null if DL distance is more than k
+            if (edits != null) {
+                similarWords.put(word, edits);
+            }
+        }
+        return Collections.unmodifiableMap(similarWords);
     }
 }
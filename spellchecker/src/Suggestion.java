@@ -0,0 +1,30 @@
+
+/**
+ * A suggested phrase or word together with its log probability score.
+ */
+public class Suggestion {
+
+    final private String text;
+    final private double score;
+
+    public Suggestion(String text, double score) {
+        this.text = text;
+        this.score = score;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the log probability score, higher is better
+     */
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.3f)", text, score);
+    }
+}
@@ -0,0 +1,149 @@
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Symmetric delete index over the vocabulary. Every word is stored under
+ * itself and under each of its single-character deletions. Two words with a
+ * Damerau-Levenshtein distance of at most 1 always share such a key, so a
+ * lookup only has to visit the buckets of the input word and its deletions
+ * instead of the whole vocabulary.
+ *
+ * Keys are stored as 64-bit hashes and buckets as runs of word ids in one
+ * int array, so the index holds no strings. A hash collision only adds
+ * candidates, which callers verify anyway.
+ */
+public class SymmetricDeleteIndex {
+
+    final private LongIntHashMap keyToBucket; // key hash to bucket number
+    final private int[] bucketStart; // postings of bucket b are bucketStart[b] until bucketStart[b + 1]
+    final private int[] postings; // word ids
+
+    public SymmetricDeleteIndex(Collection<String> vocabulary, Map<String, Integer> wordIds) {
+        this(vocabulary, wordIds::get);
+    }
+
+    /**
+     * Creates the index of the words of the automaton, with their ids in it
+     */
+    public SymmetricDeleteIndex(VocabularyAutomaton vocabulary) {
+        this(vocabulary.asSet(), vocabulary::getWordId);
+    }
+
+    private SymmetricDeleteIndex(Collection<String> vocabulary, ToIntFunction<String> wordIds) {
+        keyToBucket = new LongIntHashMap(vocabulary.size() * 8);
+
+        // First pass: number the buckets and count their words
+        int[] bucketSize = new int[1024];
+        for (String word : vocabulary) {
+            for (int skip = -1; skip < word.length(); skip++) {
+                if (isRepeatedDeletion(word, skip)) {
+                    continue;
+                }
+                long key = keyHash(word, skip);
+                int bucket = keyToBucket.get(key, -1);
+                if (bucket < 0) {
+                    bucket = keyToBucket.size();
+                    keyToBucket.put(key, bucket);
+                    if (bucket == bucketSize.length) {
+                        bucketSize = Arrays.copyOf(bucketSize, bucket * 2);
+                    }
+                }
+                bucketSize[bucket]++;
+            }
+        }
+
+        int buckets = keyToBucket.size();
+        bucketStart = new int[buckets + 1];
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] = bucketStart[b] + bucketSize[b];
+        }
+
+        // Second pass: fill in the word ids
+        postings = new int[bucketStart[buckets]];
+        int[] filled = Arrays.copyOf(bucketStart, buckets);
+        for (String word : vocabulary) {
+            int id = wordIds.applyAsInt(word);
+            for (int skip = -1; skip < word.length(); skip++) {
+                if (isRepeatedDeletion(word, skip)) {
+                    continue;
+                }
+                int bucket = keyToBucket.get(keyHash(word, skip), -1);
+                postings[filled[bucket]++] = id;
+            }
+        }
+    }
+
+    /**
+     * Deleting either of two equal neighbouring characters gives the same key
+     */
+    private static boolean isRepeatedDeletion(String word, int skip) {
+        return skip > 0 && word.charAt(skip) == word.charAt(skip - 1);
+    }
+
+    /**
+     * Returns a non-negative 64-bit hash of word without the character at
+     * index skip (-1 for the whole word), without building the substring.
+     */
+    private static long keyHash(String word, int skip) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < word.length(); i++) {
+            if (i != skip) {
+                hash = (hash ^ word.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // Mix in the length so keys that are prefixes of each other differ more
+        hash = (hash ^ (word.length() - (skip < 0 ? 0 : 1))) * 0x100000001b3L;
+        return hash & Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the ids of all vocabulary words that share a key with
+     * inputWord, without duplicates. This is a superset of the words within
+     * Damerau-Levenshtein distance 1, e.g. "abc" and "bcd" share "bc", so
+     * callers still have to verify the distance.
+     */
+    public int[] getCandidates(String inputWord) {
+        int total = 0;
+        int[] buckets = new int[inputWord.length() + 1];
+        int bucketCount = 0;
+        for (int skip = -1; skip < inputWord.length(); skip++) {
+            if (isRepeatedDeletion(inputWord, skip)) {
+                continue;
+            }
+            int bucket = keyToBucket.get(keyHash(inputWord, skip), -1);
+            if (bucket >= 0) {
+                buckets[bucketCount++] = bucket;
+                total += bucketStart[bucket + 1] - bucketStart[bucket];
+            }
+        }
+
+        int[] candidates = new int[total];
+        int n = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            int bucket = buckets[i];
+            int length = bucketStart[bucket + 1] - bucketStart[bucket];
+            System.arraycopy(postings, bucketStart[bucket], candidates, n, length);
+            n += length;
+        }
+
+        // A word can be in several of the buckets, e.g. after a substitution
+        Arrays.sort(candidates);
+        int unique = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            if (i == 0 || candidates[i] != candidates[i - 1]) {
+                candidates[unique++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, unique);
+    }
+
+    /**
+     * Returns the number of keys in the index
+     */
+    public int size() {
+        return keyToBucket.size();
+    }
+}
@@ -0,0 +1,204 @@
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Log probabilities of words given the two words before them, from the
+ * trigram counts of a CorpusReader, with interpolated absolute discounting:
+ *
+ * P(w | u v) = max(count(u v w) - D, 0) / total(u v) + bow(u v) * P(w | v)
+ *
+ * where total is the sum of the counts with context u v, bow(u v) = D *
+ * types(u v) / total(u v) and P(w | v) is the bigram probability the caller
+ * passes in. A context that was never seen backs off to P(w | v) entirely.
+ * D = N(1) / (N(1) + 2 N(2)) of the trigram counts.
+ *
+ * To keep large models small the trigrams are stored as a sorted trie: the
+ * contexts of every first word u are a sorted range of second words v, and
+ * the trigrams of every context a sorted range of third words w. Word ids
+ * and range offsets are packed into as many bits as the largest of them
+ * needs, and log probabilities are quantized to one byte each. A lookup is
+ * a binary search in each of two short ranges.
+ *
+ * The model is built once from the counts as loaded and never changes:
+ * CorpusReader.update takes no trigram counts, so the trigram counts,
+ * totals and D stay frozen at load. Only the back-off part follows
+ * updates, through the bigram probability the caller passes in. Words
+ * added later have no trigrams and always back off.
+ */
+public class TrigramModel {
+
+    final static int ID_BITS = 21; // bits per word id in a sort key, so at most 2^21 words
+
+    final private int[] firstContext; // per word u, index of its first context; one extra entry at the end
+    final private PackedInts contextWords; // per context, the second word v
+    final private PackedInts firstTrigram; // per context, index of its first trigram; one extra entry at the end
+    final private PackedInts trigramWords; // per trigram, the third word w
+    final private Quantized logSeen; // per trigram, log max(count - D, 0) / total(u v)
+    final private Quantized logBackOffWeight; // per context, log bow(u v)
+    final private double discount;
+
+    /**
+     * Builds the model from the trigrams of cr as loaded. Trigrams with a
+     * word that has no id are left out.
+     */
+    public TrigramModel(CorpusReader cr) {
+        int words = cr.getWordCount();
+        if (words > 1 << ID_BITS) {
+            throw new IllegalStateException("Too many words for trigram sort keys: " + words);
+        }
+
+        // Collect the counts by sort key
+        LongIntHashMap countsByKey = new LongIntHashMap();
+        for (Map.Entry<String, Integer> entry : cr.getLongerNGrams().entrySet()) {
+            String[] trigram = entry.getKey().split(" ");
+            if (trigram.length != 3 || entry.getValue() <= 0) {
+                continue;
+            }
+            int u = cr.getWordId(trigram[0]);
+            int v = cr.getWordId(trigram[1]);
+            int w = cr.getWordId(trigram[2]);
+            if (u >= 0 && v >= 0 && w >= 0 && u < words && v < words && w < words) {
+                countsByKey.put(((long) u << (2 * ID_BITS)) | ((long) v << ID_BITS) | w, entry.getValue());
+            }
+        }
+        int size = countsByKey.size();
+        long[] keys = new long[size];
+        int next = 0;
+        for (long key : countsByKey.getKeys()) {
+            if (key >= 0) {
+                keys[next++] = key;
+            }
+        }
+        Arrays.sort(keys);
+        int[] counts = new int[size];
+        long n1 = 0;
+        long n2 = 0;
+        int contexts = 0;
+        for (int i = 0; i < size; i++) {
+            counts[i] = countsByKey.get(keys[i], 0);
+            n1 += counts[i] == 1 ? 1 : 0;
+            n2 += counts[i] == 2 ? 1 : 0;
+            if (i == 0 || keys[i] >>> ID_BITS != keys[i - 1] >>> ID_BITS) {
+                contexts++;
+            }
+        }
+        discount = n1 > 0 ? (double) n1 / (n1 + 2 * n2) : KneserNeySmoothing.DEFAULT_DISCOUNT;
+
+        int idBits = PackedInts.bitsFor(words);
+        firstContext = new int[words + 1];
+        contextWords = new PackedInts(contexts, idBits);
+        firstTrigram = new PackedInts(contexts + 1, PackedInts.bitsFor(size + 1));
+        trigramWords = new PackedInts(size, idBits);
+        double[] seen = new double[size];
+        double[] backOff = new double[contexts];
+
+        // Trigrams of one context are adjacent, as are the contexts of one first word
+        int context = 0;
+        int u = 0;
+        for (int start = 0; start < size; context++) {
+            int contextU = (int) (keys[start] >>> (2 * ID_BITS));
+            while (u <= contextU) {
+                firstContext[u++] = context;
+            }
+            long contextKey = keys[start] >>> ID_BITS;
+            int end = start;
+            long total = 0;
+            while (end < size && keys[end] >>> ID_BITS == contextKey) {
+                total += counts[end++];
+            }
+            for (int i = start; i < end; i++) {
+                trigramWords.set(i, (int) (keys[i] & ((1 << ID_BITS) - 1)));
+                seen[i] = Math.log(Math.max(counts[i] - discount, 0) / total);
+            }
+            contextWords.set(context, (int) (contextKey & ((1 << ID_BITS) - 1)));
+            firstTrigram.set(context, start);
+            backOff[context] = Math.log(discount * (end - start) / total);
+            start = end;
+        }
+        while (u <= words) {
+            firstContext[u++] = contexts;
+        }
+        firstTrigram.set(contexts, size);
+
+        logSeen = new Quantized(seen);
+        logBackOffWeight = new Quantized(backOff);
+    }
+
+    /**
+     * Returns log P(w | u v), given logBackOff = log P(w | v)
+     */
+    public double logProbability(int u, int v, int w, double logBackOff) {
+        if (u < 0 || v < 0 || w < 0 || u >= firstContext.length - 1) {
+            return logBackOff;
+        }
+        int context = contextWords.search(firstContext[u], firstContext[u + 1], v);
+        if (context < 0) {
+            return logBackOff;
+        }
+        double backOff = logBackOffWeight.get(context) + logBackOff;
+        int trigram = trigramWords.search(firstTrigram.get(context), firstTrigram.get(context + 1), w);
+        if (trigram < 0) {
+            return backOff;
+        }
+        double seen = logSeen.get(trigram);
+        // log(e^seen + e^backOff) without leaving the log domain
+        return Math.max(seen, backOff) + Math.log1p(Math.exp(-Math.abs(seen - backOff)));
+    }
+
+    public int size() {
+        return trigramWords.size();
+    }
+
+    public double getDiscount() {
+        return discount;
+    }
+
+    /**
+     * Returns the number of bytes the tables take
+     */
+    public long getSizeInBytes() {
+        return 4L * firstContext.length + contextWords.getSizeInBytes() + firstTrigram.getSizeInBytes()
+                + trigramWords.getSizeInBytes() + logSeen.getSizeInBytes() + logBackOffWeight.getSizeInBytes();
+    }
+
+    /**
+     * Values stored as one of 255 evenly spaced levels between the smallest
+     * and the largest finite value, so a value is off by at most half a
+     * step. Level 0 is negative infinity, e.g. the log of a count of 1 when
+     * D is 1.
+     */
+    static class Quantized {
+
+        final private byte[] levels;
+        final private double min;
+        final private double step;
+
+        Quantized(double[] values) {
+            double low = Double.POSITIVE_INFINITY;
+            double high = Double.NEGATIVE_INFINITY;
+            for (double value : values) {
+                if (value > Double.NEGATIVE_INFINITY) {
+                    low = Math.min(low, value);
+                    high = Math.max(high, value);
+                }
+            }
+            min = low > high ? 0 : low;
+            step = low >= high ? 1 : (high - low) / 254;
+            levels = new byte[values.length];
+            for (int i = 0; i < values.length; i++) {
+                levels[i] = values[i] == Double.NEGATIVE_INFINITY ? 0
+                        : (byte) (1 + Math.round((values[i] - min) / step));
+            }
+        }
+
+        double get(int i) {
+            int level = levels[i] & 0xff;
+            return level == 0 ? Double.NEGATIVE_INFINITY : min + (level - 1) * step;
+        }
+
+        long getSizeInBytes() {
+            return levels.length;
+        }
+    }
+}
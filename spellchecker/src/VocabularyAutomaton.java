@@ -0,0 +1,479 @@
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The vocabulary as a minimal acyclic automaton: words that share a prefix
+ * share its states, and so do words that share a suffix. The automaton is
+ * built once from the sorted words and stored in a few arrays of packed
+ * ints, without an object per word or per state. The model image stores
+ * these arrays, so loading it does not build the automaton again.
+ *
+ * Every arc carries the number of vocabulary words that come before the
+ * words through it, given the state it leaves, so following a word adds up
+ * its rank in sorted order. The rank is its word id, so the automaton maps
+ * words to ids and, following the arcs whose ranks enclose an id, ids back
+ * to words without storing either.
+ *
+ * findWithinDistance walks the automaton along one row of the
+ * Damerau-Levenshtein table per state, which is the Levenshtein automaton
+ * of the word run alongside it. A branch is left as soon as its row
+ * exceeds the distance, so a prefix shared by many words is compared once.
+ */
+public class VocabularyAutomaton {
+
+    final private char[] alphabet; // sorted, label code i is alphabet[i]
+    final private PackedInts firstArc; // per state, index of its first arc; one extra entry at the end
+    final private PackedInts arcLabels; // per arc, the code of its character, sorted per state
+    final private PackedInts arcTargets; // per arc, the state it leads to
+    final private PackedInts arcRanks; // per arc, the words before those through it, from its state
+    final private long[] finalStates; // bit per state
+    final private int size;
+    final private int maxLength;
+
+    /**
+     * Builds the automaton of words, which must be sorted and distinct. The
+     * id of each word is its index in words.
+     */
+    public VocabularyAutomaton(String[] words) {
+        size = words.length;
+
+        // Build with one object per state, merging equal states as soon as
+        // no later word can reach them (Daciuk et al.)
+        Map<Node, Node> register = new HashMap<>();
+        Node root = new Node();
+        List<Node> path = new ArrayList<>();
+        path.add(root);
+        String previous = "";
+        int longest = 0;
+        for (String word : words) {
+            if (!previous.isEmpty() && word.compareTo(previous) <= 0) {
+                throw new IllegalArgumentException("Words must be sorted and distinct: " + previous + ", " + word);
+            }
+            int common = 0;
+            while (common < word.length() && common < previous.length()
+                    && word.charAt(common) == previous.charAt(common)) {
+                common++;
+            }
+            minimize(path, common, register);
+            for (int i = common; i < word.length(); i++) {
+                Node next = new Node();
+                path.get(i).add(word.charAt(i), next);
+                path.add(next);
+            }
+            path.get(word.length()).isFinal = true;
+            previous = word;
+            longest = Math.max(longest, word.length());
+        }
+        minimize(path, 0, register);
+        maxLength = longest;
+
+        // Number the states depth first and count their arcs and words
+        IdentityHashMap<Node, Integer> numbers = new IdentityHashMap<>();
+        List<Node> states = new ArrayList<>();
+        number(root, numbers, states);
+        int arcs = 0;
+        boolean[] used = new boolean[Character.MAX_VALUE + 1];
+        for (Node state : states) {
+            arcs += state.count;
+            for (int a = 0; a < state.count; a++) {
+                used[state.labels[a]] = true;
+            }
+        }
+        int letters = 0;
+        char[] letterList = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (used[c]) {
+                letterList[letters++] = (char) c;
+            }
+        }
+        alphabet = Arrays.copyOf(letterList, letters);
+
+        firstArc = new PackedInts(states.size() + 1, PackedInts.bitsFor(arcs + 1));
+        arcLabels = new PackedInts(arcs, PackedInts.bitsFor(Math.max(1, letters)));
+        arcTargets = new PackedInts(arcs, PackedInts.bitsFor(states.size()));
+        arcRanks = new PackedInts(arcs, PackedInts.bitsFor(size + 1));
+        finalStates = new long[(states.size() + 63) / 64];
+        int arc = 0;
+        for (int s = 0; s < states.size(); s++) {
+            Node state = states.get(s);
+            firstArc.set(s, arc);
+            if (state.isFinal) {
+                finalStates[s >>> 6] |= 1L << s;
+            }
+            int before = state.isFinal ? 1 : 0;
+            for (int a = 0; a < state.count; a++, arc++) {
+                arcLabels.set(arc, Arrays.binarySearch(alphabet, state.labels[a]));
+                arcTargets.set(arc, numbers.get(state.targets[a]));
+                arcRanks.set(arc, before);
+                before += state.targets[a].words;
+            }
+        }
+        firstArc.set(states.size(), arc);
+    }
+
+    /**
+     * Creates an automaton from the tables of one built before, as the
+     * getters return them
+     */
+    VocabularyAutomaton(char[] alphabet, PackedInts firstArc, PackedInts arcLabels, PackedInts arcTargets,
+            PackedInts arcRanks, long[] finalStates, int size, int maxLength) {
+        int states = firstArc.size() - 1;
+        int arcs = arcLabels.size();
+        if (states < 1 || arcTargets.size() != arcs || arcRanks.size() != arcs
+                || finalStates.length != (states + 63) / 64 || size < 0) {
+            throw new IllegalArgumentException("Tables of different automata.");
+        }
+        this.alphabet = alphabet;
+        this.firstArc = firstArc;
+        this.arcLabels = arcLabels;
+        this.arcTargets = arcTargets;
+        this.arcRanks = arcRanks;
+        this.finalStates = finalStates;
+        this.size = size;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * State while building
+     */
+    private static class Node {
+
+        boolean isFinal;
+        char[] labels = new char[2];
+        Node[] targets = new Node[2];
+        int count;
+        int words; // words accepted from this state on, set when numbering
+
+        void add(char label, Node target) {
+            if (count == labels.length) {
+                labels = Arrays.copyOf(labels, count * 2);
+                targets = Arrays.copyOf(targets, count * 2);
+            }
+            labels[count] = label;
+            targets[count++] = target;
+        }
+
+        // Equal once all targets are registered, so they are compared by identity
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Node)) {
+                return false;
+            }
+            Node node = (Node) other;
+            if (isFinal != node.isFinal || count != node.count) {
+                return false;
+            }
+            for (int a = 0; a < count; a++) {
+                if (labels[a] != node.labels[a] || targets[a] != node.targets[a]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = isFinal ? 1 : 0;
+            for (int a = 0; a < count; a++) {
+                hash = 31 * (31 * hash + labels[a]) + System.identityHashCode(targets[a]);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Replaces the states of path below depth by equal registered states,
+     * deepest first, and cuts path back to depth + 1 states
+     */
+    private static void minimize(List<Node> path, int depth, Map<Node, Node> register) {
+        for (int i = path.size() - 1; i > depth; i--) {
+            Node state = path.get(i);
+            Node parent = path.get(i - 1);
+            Node registered = register.putIfAbsent(state, state);
+            if (registered != null) {
+                parent.targets[parent.count - 1] = registered;
+            }
+            path.remove(i);
+        }
+    }
+
+    private static int number(Node state, IdentityHashMap<Node, Integer> numbers, List<Node> states) {
+        Integer number = numbers.get(state);
+        if (number != null) {
+            return number;
+        }
+        numbers.put(state, states.size());
+        states.add(state);
+        state.words = state.isFinal ? 1 : 0;
+        for (int a = 0; a < state.count; a++) {
+            number(state.targets[a], numbers, states);
+            state.words += state.targets[a].words;
+        }
+        return numbers.get(state);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String word) {
+        return getWordId(word) >= 0;
+    }
+
+    /**
+     * Returns the id of word, the number of vocabulary words that sort
+     * before it, or -1 if word is not in the vocabulary
+     */
+    public int getWordId(String word) {
+        int state = 0;
+        int rank = 0;
+        for (int i = 0; i < word.length(); i++) {
+            int code = Arrays.binarySearch(alphabet, word.charAt(i));
+            int arc = code < 0 ? -1 : arcLabels.search(firstArc.get(state), firstArc.get(state + 1), code);
+            if (arc < 0) {
+                return -1;
+            }
+            rank += arcRanks.get(arc);
+            state = arcTargets.get(arc);
+        }
+        return isFinal(state) ? rank : -1;
+    }
+
+    /**
+     * Returns the word with the given id, taking at every state the last arc
+     * with at most the remaining rank of words before it
+     */
+    public String getWord(int wordId) {
+        if (wordId < 0 || wordId >= size) {
+            throw new IndexOutOfBoundsException("No word with id " + wordId + ".");
+        }
+        StringBuilder word = new StringBuilder();
+        int state = 0;
+        int rank = wordId;
+        while (rank > 0 || !isFinal(state)) {
+            int arc = firstArc.get(state);
+            int end = firstArc.get(state + 1);
+            while (arc + 1 < end && arcRanks.get(arc + 1) <= rank) {
+                arc++;
+            }
+            rank -= arcRanks.get(arc);
+            word.append(alphabet[arcLabels.get(arc)]);
+            state = arcTargets.get(arc);
+        }
+        return word.toString();
+    }
+
+    private boolean isFinal(int state) {
+        return (finalStates[state >>> 6] & (1L << state)) != 0;
+    }
+
+    /**
+     * Returns the ids of all words with a Damerau-Levenshtein distance of at
+     * most k from word, in sorted order of the words
+     */
+    public int[] findWithinDistance(String word, int k) {
+        if (k < 0 || size == 0) {
+            return new int[0];
+        }
+        int m = word.length();
+        int depth = Math.min(maxLength, m + k);
+        Search search = new Search(word, k, depth);
+        for (int j = 0; j <= m; j++) {
+            search.rows[0][j] = j;
+        }
+        search.visit(0, 0, 0);
+        return Arrays.copyOf(search.found, search.count);
+    }
+
+    /**
+     * One run of findWithinDistance: the row of the distance table for
+     * every depth of the current path
+     */
+    private class Search {
+
+        final String word;
+        final int k;
+        final int[][] rows; // rows[d][j]: distance between the path up to depth d and word[0, j)
+        final char[] path;
+        int[] found = new int[16];
+        int count;
+
+        Search(String word, int k, int maxDepth) {
+            this.word = word;
+            this.k = k;
+            this.rows = new int[maxDepth + 1][word.length() + 1];
+            this.path = new char[maxDepth];
+        }
+
+        void visit(int state, int depth, int rank) {
+            int m = word.length();
+            int[] row = rows[depth];
+            if (isFinal(state) && row[m] <= k) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = rank;
+            }
+            if (depth == rows.length - 1) {
+                return;
+            }
+
+            int[] next = rows[depth + 1];
+            int[] before = depth > 0 ? rows[depth - 1] : null;
+            int end = firstArc.get(state + 1);
+            for (int arc = firstArc.get(state); arc < end; arc++) {
+                char c = alphabet[arcLabels.get(arc)];
+                next[0] = depth + 1;
+                int rowMin = next[0];
+                for (int j = 1; j <= m; j++) {
+                    char wj = word.charAt(j - 1);
+                    int value = Math.min(row[j - 1] + (wj == c ? 0 : 1), Math.min(row[j] + 1, next[j - 1] + 1));
+                    if (before != null && j > 1 && c == word.charAt(j - 2) && path[depth - 1] == wj) {
+                        value = Math.min(value, before[j - 2] + 1); // transposition
+                    }
+                    next[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                // Every longer path is at least the minimum of this row away
+                if (rowMin <= k) {
+                    path[depth] = c;
+                    visit(arcTargets.get(arc), depth + 1, rank + arcRanks.get(arc));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the words as a read-only set, in sorted order, which is id
+     * order
+     */
+    public Set<String> asSet() {
+        return new AbstractSet<String>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && VocabularyAutomaton.this.contains((String) o);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return new WordIterator();
+            }
+        };
+    }
+
+    /**
+     * Walks the automaton depth first, which gives the words in sorted order
+     */
+    private class WordIterator implements Iterator<String> {
+
+        final private int[] states = new int[maxLength + 1];
+        final private int[] nextArcs = new int[maxLength + 1]; // per depth, the next arc to follow
+        final private StringBuilder word = new StringBuilder();
+        private int depth = -1; // of the word returned last
+        private String next;
+
+        WordIterator() {
+            if (size > 0) {
+                states[0] = 0;
+                nextArcs[0] = firstArc.get(0);
+                depth = 0;
+                next = isFinal(0) ? "" : advance();
+            }
+        }
+
+        /**
+         * Returns the next word after the current path, or null
+         */
+        private String advance() {
+            while (depth >= 0) {
+                int state = states[depth];
+                if (nextArcs[depth] < firstArc.get(state + 1)) {
+                    int arc = nextArcs[depth]++;
+                    word.setLength(depth);
+                    word.append(alphabet[arcLabels.get(arc)]);
+                    depth++;
+                    states[depth] = arcTargets.get(arc);
+                    nextArcs[depth] = firstArc.get(states[depth]);
+                    if (isFinal(states[depth])) {
+                        return word.toString();
+                    }
+                } else {
+                    depth--;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            next = advance();
+            return result;
+        }
+    }
+
+    /**
+     * Returns the number of bytes the tables take
+     */
+    public long getSizeInBytes() {
+        return 2L * alphabet.length + firstArc.getSizeInBytes() + arcLabels.getSizeInBytes()
+                + arcTargets.getSizeInBytes() + arcRanks.getSizeInBytes() + 8L * finalStates.length;
+    }
+
+    char[] getAlphabet() {
+        return alphabet;
+    }
+
+    PackedInts getFirstArc() {
+        return firstArc;
+    }
+
+    PackedInts getArcLabels() {
+        return arcLabels;
+    }
+
+    PackedInts getArcTargets() {
+        return arcTargets;
+    }
+
+    PackedInts getArcRanks() {
+        return arcRanks;
+    }
+
+    long[] getFinalStates() {
+        return finalStates;
+    }
+
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns the number of states
+     */
+    int getStateCount() {
+        return firstArc.size() - 1;
+    }
+}
@@ -0,0 +1,93 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ColumnarVerifier on the Vector API: the states of as many words as the
+ * preferred byte vector has lanes, e.g. 32 with AVX2, are masks, and one
+ * compare handles a character of all of them. Words that do not fill a
+ * vector are left to the scalar version, so both find the same words.
+ *
+ * Needs JDK 16 or later; ColumnarVerifier.get loads it by name, so the rest
+ * of the program still builds for Java 8.
+ */
+public class VectorColumnarVerifier extends ColumnarVerifier {
+
+    final private static VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public int verify(byte[] columns, int offset, int count, int length, byte[] pattern,
+            int from, int to, int[] found, int foundCount) {
+        int lanes = SPECIES.length();
+        int j = from;
+        for (; j + lanes <= to; j += lanes) {
+            VectorMask<Byte> match;
+            if (length == pattern.length) {
+                match = sameLength(columns, offset + j, count, pattern);
+            } else if (length == pattern.length - 1) {
+                match = oneShorter(columns, offset + j, count, length, pattern);
+            } else if (length == pattern.length + 1) {
+                match = oneLonger(columns, offset + j, count, pattern);
+            } else {
+                return foundCount;
+            }
+            if (match.anyTrue()) {
+                long bits = match.toLong();
+                while (bits != 0) {
+                    found[foundCount++] = j + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return super.verify(columns, offset, count, length, pattern, j, to, found, foundCount);
+    }
+
+    private static VectorMask<Byte> sameLength(byte[] columns, int start, int count, byte[] pattern) {
+        VectorMask<Byte> exact = SPECIES.maskAll(true);
+        VectorMask<Byte> exactBefore = SPECIES.maskAll(false);
+        VectorMask<Byte> one = SPECIES.maskAll(false);
+        ByteVector before = null;
+        for (int p = 0; p < pattern.length && exact.or(one).anyTrue(); p++) {
+            ByteVector column = ByteVector.fromArray(SPECIES, columns, start + p * count);
+            VectorMask<Byte> match = column.eq(pattern[p]);
+            VectorMask<Byte> next = one.and(match).or(exact.andNot(match));
+            if (p > 0) {
+                next = next.or(exactBefore.and(before.eq(pattern[p])).and(column.eq(pattern[p - 1])));
+            }
+            exactBefore = exact;
+            exact = exact.and(match);
+            one = next;
+            before = column;
+        }
+        return exact.or(one);
+    }
+
+    private static VectorMask<Byte> oneShorter(byte[] columns, int start, int count, int length, byte[] pattern) {
+        VectorMask<Byte> prefix = SPECIES.maskAll(true);
+        VectorMask<Byte> skipped = prefix;
+        for (int p = 0; p < length && skipped.anyTrue(); p++) {
+            ByteVector column = ByteVector.fromArray(SPECIES, columns, start + p * count);
+            prefix = prefix.and(column.eq(pattern[p]));
+            skipped = skipped.and(column.eq(pattern[p + 1])).or(prefix);
+        }
+        return skipped;
+    }
+
+    private static VectorMask<Byte> oneLonger(byte[] columns, int start, int count, byte[] pattern) {
+        VectorMask<Byte> prefix = SPECIES.maskAll(true);
+        VectorMask<Byte> skipped = prefix;
+        ByteVector column = ByteVector.fromArray(SPECIES, columns, start);
+        for (int p = 0; p < pattern.length && skipped.anyTrue(); p++) {
+            ByteVector nextColumn = ByteVector.fromArray(SPECIES, columns, start + (p + 1) * count);
+            prefix = prefix.and(column.eq(pattern[p]));
+            skipped = skipped.and(nextColumn.eq(pattern[p])).or(prefix);
+            column = nextColumn;
+        }
+        return skipped;
+    }
+}